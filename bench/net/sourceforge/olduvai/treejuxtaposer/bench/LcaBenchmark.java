@@ -0,0 +1,96 @@
+package net.sourceforge.olduvai.treejuxtaposer.bench;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.LcaIndex;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building an {@link LcaIndex} and answering batches of queries with it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+public class LcaBenchmark
+{
+    /** Tree shape, see {@link TreeShapes}. */
+    @Param({ "caterpillar", "realistic" })
+    public String shape;
+
+    /** Number of leaves. */
+    @Param({ "100000", "1000000" })
+    public int leaves;
+
+    /** Queries per batch. */
+    private static final int queries = 1 << 20;
+
+    /** Parsed tree. */
+    private Tree tree;
+    /** Index of the tree. */
+    private LcaIndex index;
+    /** First keys of the queries. */
+    private int[] as;
+    /** Second keys of the queries. */
+    private int[] bs;
+    /** Query results. */
+    private int[] result;
+
+    /** Parses the tree, builds its index and picks the queries. */
+    @Setup
+    public void parse()
+    {
+        String text = TreeShapes.newick(shape, leaves, 42);
+        tree = new TreeParser(new BufferedReader(new StringReader(text))).tokenize(text.length(), "bench", null);
+        index = tree.getLcaIndex();
+        Random r = new Random(42);
+        int n = index.size();
+        as = new int[queries];
+        bs = new int[queries];
+        result = new int[queries];
+        for (int i = 0; i < queries; i++)
+        {
+            as[i] = r.nextInt(n);
+            bs[i] = r.nextInt(n);
+        }
+    }
+
+    /**
+     * Builds a new index.
+     * @return The index.
+     */
+    @Benchmark
+    public LcaIndex build()
+    {
+        return new LcaIndex(tree);
+    }
+
+    /**
+     * Answers a batch of random queries.
+     * @return The results.
+     */
+    @Benchmark
+    public int[] query()
+    {
+        index.lca(as, bs, result);
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package net.sourceforge.olduvai.treejuxtaposer.bench;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.TreeNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the lookups on a parsed tree: {@link Tree#getLeaves(TreeNode)},
+ * {@link Tree#getLeafRange(TreeNode)}, {@link Tree#getLeaf(int)},
+ * {@link Tree#getNodeByName(String)} and {@link Tree#getNodeByKey(int)}.  Names and keys
+ * are looked up in a fixed random order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+public class LookupBenchmark
+{
+    /** Tree shape, see {@link TreeShapes}. */
+    @Param({ "balanced", "realistic" })
+    public String shape;
+
+    /** Number of leaves. */
+    @Param({ "1000", "100000", "1000000" })
+    public int leaves;
+
+    /** Number of precomputed lookups, a power of two. */
+    private static final int lookups = 1 << 16;
+
+    /** Parsed tree. */
+    private Tree tree;
+    /** Internal node whose leaves are listed, about a quarter of the tree. */
+    private TreeNode subtree;
+    /** Node names to look up. */
+    private String[] names;
+    /** Keys to look up. */
+    private int[] keys;
+    /** Position in names and keys. */
+    private int next = 0;
+
+    /** Parses the tree and picks the lookups. */
+    @Setup
+    public void parse()
+    {
+        String text = TreeShapes.newick(shape, leaves, 42);
+        tree = new TreeParser(new BufferedReader(new StringReader(text))).tokenize(text.length(), "bench", null);
+        subtree = tree.getRoot();
+        while (!subtree.isLeaf() && subtree.numberLeaves > leaves / 4)
+            subtree = subtree.getChild(0);
+        Random r = new Random(42);
+        int n = tree.nodes.size();
+        names = new String[lookups];
+        keys = new int[lookups];
+        for (int i = 0; i < lookups; i++)
+        {
+            TreeNode leaf;
+            do
+                leaf = tree.getNodeByKey(r.nextInt(n));
+            while (!leaf.isLeaf());
+            names[i] = leaf.getName();
+            keys[i] = r.nextInt(n);
+        }
+    }
+
+    /**
+     * Lists the leaves of the whole tree.
+     * @return Leaf list.
+     */
+    @Benchmark
+    public List getLeaves()
+    {
+        return tree.getLeaves(tree.getRoot());
+    }
+
+    /**
+     * Lists the leaves of a subtree.
+     * @return Leaf list.
+     */
+    @Benchmark
+    public List getSubtreeLeaves()
+    {
+        return tree.getLeaves(subtree);
+    }
+
+    /**
+     * Walks the leaves of a subtree through the leaf index, without copying them.
+     * @return Number of named leaves, so the walk isn't optimized away.
+     */
+    @Benchmark
+    public int getSubtreeLeafRange()
+    {
+        int named = 0;
+        for (Iterator it = tree.getLeafRange(subtree).iterator(); it.hasNext();)
+            if (((TreeNode) it.next()).getName().length() > 0)
+                named++;
+        return named;
+    }
+
+    /**
+     * Looks up one leaf by leaf index.
+     * @return The leaf.
+     */
+    @Benchmark
+    public TreeNode getLeaf()
+    {
+        next = (next + 1) & (lookups - 1);
+        return tree.getLeaf(keys[next] % leaves);
+    }
+
+    /**
+     * Looks up one leaf by name.
+     * @return The leaf.
+     */
+    @Benchmark
+    public TreeNode getNodeByName()
+    {
+        next = (next + 1) & (lookups - 1);
+        return tree.getNodeByName(names[next]);
+    }
+
+    /**
+     * Looks up one node by key.
+     * @return The node.
+     */
+    @Benchmark
+    public TreeNode getNodeByKey()
+    {
+        next = (next + 1) & (lookups - 1);
+        return tree.getNodeByKey(keys[next]);
+    }
+}
@@ -0,0 +1,105 @@
+package net.sourceforge.olduvai.treejuxtaposer.bench;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.olduvai.treejuxtaposer.TreeIterator;
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of parsing every tree of a Nexus file held in memory, collected into a list,
+ * streamed one at a time, and streamed by one parser that recycles each tree.  Run with
+ * -prof gc to compare the allocation per tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+public class NexusBenchmark
+{
+    /** Tree shape, see {@link TreeShapes}. */
+    @Param({ "realistic" })
+    public String shape;
+
+    /** Number of leaves of each tree. */
+    @Param({ "100", "10000" })
+    public int leaves;
+
+    /** Number of trees in the file. */
+    @Param({ "100", "1000" })
+    public int trees;
+
+    /** Nexus text. */
+    private String text;
+
+    /** Parser kept between invocations, for the recycling benchmark. */
+    private TreeParser recycling;
+
+    /** Generates the file text. */
+    @Setup
+    public void generate()
+    {
+        text = TreeShapes.nexus(shape, leaves, trees, 42);
+        recycling = new TreeParser(new BufferedReader(new StringReader(text)));
+    }
+
+    /**
+     * Parses all trees into a list.
+     * @return The trees.
+     */
+    @Benchmark
+    public ArrayList nexusTokenize()
+    {
+        return new TreeParser(new BufferedReader(new StringReader(text))).nexusTokenize(null, null);
+    }
+
+    /**
+     * Parses the trees one at a time without keeping them.
+     * @param bh Consumer of each tree.
+     */
+    @Benchmark
+    public void nexusTrees(Blackhole bh)
+    {
+        TreeIterator it = new TreeParser(new BufferedReader(new StringReader(text))).nexusTrees();
+        while (it.hasNext())
+        {
+            Tree t = it.next();
+            bh.consume(t);
+        }
+    }
+
+    /**
+     * Parses the trees one at a time with one parser, releasing each tree to it.
+     * @param bh Consumer of each tree.
+     */
+    @Benchmark
+    public void nexusTreesRecycled(Blackhole bh)
+    {
+        recycling.reset(new StringReader(text));
+        TreeIterator it = recycling.nexusTrees();
+        while (it.hasNext())
+        {
+            Tree t = it.next();
+            bh.consume(t.getLeafCount());
+            recycling.release(t);
+        }
+    }
+}
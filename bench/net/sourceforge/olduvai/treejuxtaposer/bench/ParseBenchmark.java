@@ -0,0 +1,93 @@
+package net.sourceforge.olduvai.treejuxtaposer.bench;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.olduvai.treejuxtaposer.ParseListener;
+import net.sourceforge.olduvai.treejuxtaposer.ParseStats;
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link TreeParser#tokenize(long, String, net.sourceforge.olduvai.treejuxtaposer.ProgressListener)}, which
+ * includes {@link Tree#postProcess()}, on a single Newick tree held in memory.  Each tree
+ * is dropped after the call, so with -prof gc this also reports the allocation rate and
+ * collection time of loading and discarding large trees.  {@link #tokenizeMeasured()}
+ * gives the cost of a {@link ParseListener}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+public class ParseBenchmark
+{
+    /** Tree shape, see {@link TreeShapes}. */
+    @Param({ "balanced", "caterpillar", "star", "realistic" })
+    public String shape;
+
+    /** Number of leaves. */
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    public int leaves;
+
+    /** Newick text of the tree. */
+    private String text;
+
+    /** Nodes reported to the listener of {@link #tokenizeMeasured()}, kept so the stats are used. */
+    public long nodes;
+
+    /** Generates the tree text. */
+    @Setup
+    public void generate()
+    {
+        text = TreeShapes.newick(shape, leaves, 42);
+    }
+
+    /**
+     * Parses and post processes the tree.
+     * @return The tree, so it isn't optimized away.
+     */
+    @Benchmark
+    public Tree tokenize()
+    {
+        TreeParser tp = new TreeParser(new BufferedReader(new StringReader(text)));
+        return tp.tokenize(text.length(), "bench", null);
+    }
+
+    /**
+     * Parses and post processes the tree with a {@link ParseListener} set, which times
+     * the reads, tokenizing and post processing.
+     * @return The tree, so it isn't optimized away.
+     */
+    @Benchmark
+    public Tree tokenizeMeasured()
+    {
+        TreeParser tp = new TreeParser(new BufferedReader(new StringReader(text)));
+        tp.setParseListener(new ParseListener()
+        {
+            public void parseStarted(String streamName)
+            {
+            }
+
+            public void treeParsed(ParseStats stats)
+            {
+                nodes += stats.getNodes();
+            }
+        });
+        return tp.tokenize(text.length(), "bench", null);
+    }
+}
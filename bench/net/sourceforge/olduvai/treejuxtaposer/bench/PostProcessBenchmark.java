@@ -0,0 +1,85 @@
+package net.sourceforge.olduvai.treejuxtaposer.bench;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link Tree#postProcess()} alone.  The tree is parsed once and the
+ * parsed leaf names are put back before each call, so duplicate renaming does the
+ * same work every time.  The stages parameter compares eager post processing with
+ * deferring all but the keys and the leaf index, as a scan that only counts
+ * leaves would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+public class PostProcessBenchmark
+{
+    /** Tree shape, see {@link TreeShapes}. */
+    @Param({ "balanced", "caterpillar", "star", "realistic" })
+    public String shape;
+
+    /** Number of leaves. */
+    @Param({ "1000", "100000", "1000000" })
+    public int leaves;
+
+    /** Post processing stages run eagerly, see {@link Tree#postProcess(int)}. */
+    @Param({ "31", "9" })
+    public int stages;
+
+    /** Parsed tree. */
+    private Tree tree;
+
+    /** Node names as parsed, by key. */
+    private String[] labels;
+
+    /** Parses the tree and records its names. */
+    @Setup
+    public void parse()
+    {
+        String text = TreeShapes.newick(shape, leaves, 42);
+        tree = new TreeParser(new BufferedReader(new StringReader(text))).tokenize(text.length(), "bench", null);
+        labels = new String[tree.nodes.size()];
+        for (int i = 0; i < labels.length; i++)
+            labels[i] = tree.getNodeByKey(i).label;
+    }
+
+    /** Undoes the renaming of duplicate leaves by the previous call. */
+    @Setup(Level.Invocation)
+    public void restoreNames()
+    {
+        for (int i = 0; i < labels.length; i++)
+            tree.getNodeByKey(i).setName(labels[i]);
+    }
+
+    /**
+     * Post processes the tree.
+     * @return The tree.
+     */
+    @Benchmark
+    public Tree postProcess()
+    {
+        tree.postProcess(stages);
+        return tree;
+    }
+}
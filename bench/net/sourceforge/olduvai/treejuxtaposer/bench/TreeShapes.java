@@ -0,0 +1,169 @@
+package net.sourceforge.olduvai.treejuxtaposer.bench;
+
+import java.util.Random;
+
+/**
+ * Generates Newick and Nexus text for the benchmarks.
+ *
+ * Shapes are "balanced" (complete binary splits), "caterpillar" (every internal
+ * node has one leaf child, height equal to the leaf count), "star" (one internal
+ * node) and "realistic" (random binary splits with species-like leaf names, a few
+ * duplicate names and random branch lengths).  Generation is iterative so the
+ * caterpillar can be as large as the heap allows.
+ */
+public class TreeShapes
+{
+    /** Genus and species syllables for realistic leaf names. */
+    private static final String[] syllables = { "ab", "ca", "de", "fi", "go", "hu", "la", "me",
+            "no", "pi", "ra", "si", "tu", "ve", "xo", "zy" };
+
+    /** Marker for a pending ',' on the generation stack. */
+    private static final int comma = -1;
+    /** Marker for a pending ')' on the generation stack. */
+    private static final int close = -2;
+
+    /** Not instantiated, all methods are static. */
+    private TreeShapes()
+    {
+    }
+
+    /**
+     * Generates one semicolon terminated Newick tree.
+     * @param shape One of "balanced", "caterpillar", "star" or "realistic".
+     * @param leaves Number of leaves, at least 2.
+     * @param seed Random seed for the realistic shape.
+     * @return Newick text.
+     */
+    public static String newick(String shape, int leaves, long seed)
+    {
+        StringBuilder sb = new StringBuilder(leaves * 16);
+        append(sb, shape, leaves, new Random(seed));
+        return sb.append(";\n").toString();
+    }
+
+    /**
+     * Generates a Nexus file with a taxa block and a trees block.
+     * @param shape Tree shape, as for {@link #newick(String, int, long)}.
+     * @param leaves Number of leaves of each tree.
+     * @param trees Number of trees.
+     * @param seed Random seed.
+     * @return Nexus text.
+     */
+    public static String nexus(String shape, int leaves, int trees, long seed)
+    {
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder(leaves * trees * 16);
+        sb.append("#NEXUS\n\nbegin taxa;\n\tdimensions ntax=").append(leaves).append(";\nend;\n\nbegin trees;\n");
+        for (int i = 0; i < trees; i++)
+        {
+            sb.append("\ttree sample_").append(i).append(" = [&U] ");
+            append(sb, shape, leaves, r);
+            sb.append(";\n");
+        }
+        return sb.append("end;\n").toString();
+    }
+
+    /**
+     * Appends a tree without the terminator.
+     * @param sb Output.
+     * @param shape Tree shape.
+     * @param leaves Number of leaves.
+     * @param r Random source.
+     */
+    private static void append(StringBuilder sb, String shape, int leaves, Random r)
+    {
+        boolean realistic = shape.equals("realistic");
+        if (shape.equals("star"))
+        {
+            sb.append('(');
+            for (int i = 0; i < leaves; i++)
+            {
+                if (i > 0)
+                    sb.append(',');
+                leaf(sb, i, false, r);
+            }
+            sb.append(')');
+            return;
+        }
+        if (!realistic && !shape.equals("balanced") && !shape.equals("caterpillar"))
+            throw new IllegalArgumentException("Unknown tree shape " + shape);
+
+        // positive entries are subtrees of that many leaves, negative ones pending punctuation
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = leaves;
+        int leaf = 0;
+        while (top > 0)
+        {
+            int n = stack[--top];
+            if (n == comma)
+                sb.append(',');
+            else if (n == close)
+            {
+                sb.append(')');
+                if (realistic)
+                    length(sb, r);
+            }
+            else if (n == 1)
+                leaf(sb, leaf++, realistic, r);
+            else
+            {
+                int left;
+                if (shape.equals("balanced"))
+                    left = n / 2;
+                else if (realistic)
+                    left = 1 + r.nextInt(n - 1);
+                else
+                    left = 1;
+                if (top + 4 > stack.length)
+                {
+                    int[] bigger = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, bigger, 0, top);
+                    stack = bigger;
+                }
+                sb.append('(');
+                stack[top++] = close;
+                stack[top++] = n - left;
+                stack[top++] = comma;
+                stack[top++] = left;
+            }
+        }
+    }
+
+    /**
+     * Appends a leaf.
+     * @param sb Output.
+     * @param i Leaf number.
+     * @param realistic True for a species-like name and a branch length.
+     * @param r Random source.
+     */
+    private static void leaf(StringBuilder sb, int i, boolean realistic, Random r)
+    {
+        if (!realistic)
+        {
+            sb.append("taxon_").append(i);
+            return;
+        }
+        // about one leaf in fifty repeats an earlier name
+        int id = (i > 0 && r.nextInt(50) == 0) ? r.nextInt(i) : i;
+        Random names = new Random(id);
+        sb.append(Character.toUpperCase(syllables[names.nextInt(syllables.length)].charAt(0)));
+        sb.append(syllables[names.nextInt(syllables.length)].charAt(1));
+        sb.append(syllables[names.nextInt(syllables.length)]).append('_');
+        sb.append(syllables[names.nextInt(syllables.length)]);
+        sb.append(syllables[names.nextInt(syllables.length)]).append('_').append(id);
+        length(sb, r);
+    }
+
+    /**
+     * Appends a random branch length.
+     * @param sb Output.
+     * @param r Random source.
+     */
+    private static void length(StringBuilder sb, Random r)
+    {
+        // fixed point, Double.toString would switch to exponents for small values
+        String digits = Integer.toString(1000000 + r.nextInt(1000000));
+        sb.append(":0.").append(digits, 1, digits.length());
+    }
+}
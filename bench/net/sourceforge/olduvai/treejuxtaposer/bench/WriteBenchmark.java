@@ -0,0 +1,96 @@
+package net.sourceforge.olduvai.treejuxtaposer.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.olduvai.treejuxtaposer.NewickWriter;
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing a parsed tree with {@link NewickWriter} to a channel that discards the
+ * bytes, so the time is formatting and encoding only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+public class WriteBenchmark
+{
+    /** Tree shape, see {@link TreeShapes}. */
+    @Param({ "balanced", "caterpillar", "realistic" })
+    public String shape;
+
+    /** Number of leaves. */
+    @Param({ "100000", "1000000" })
+    public int leaves;
+
+    /** Parsed tree. */
+    private Tree tree;
+    /** Writer, reused as an application would. */
+    private NewickWriter writer = new NewickWriter();
+    /** Channel counting and dropping the bytes. */
+    private Sink sink = new Sink();
+
+    /** Channel that only counts what is written to it. */
+    private static class Sink implements WritableByteChannel
+    {
+        /** Bytes written. */
+        long count;
+
+        public int write(ByteBuffer b)
+        {
+            int n = b.remaining();
+            b.position(b.limit());
+            count += n;
+            return n;
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        public void close()
+        {
+        }
+    }
+
+    /** Parses the tree. */
+    @Setup
+    public void parse()
+    {
+        String text = TreeShapes.newick(shape, leaves, 42);
+        tree = new TreeParser(new BufferedReader(new StringReader(text))).tokenize(text.length(), "bench", null);
+    }
+
+    /**
+     * Writes the tree.
+     * @return Bytes written so far.
+     * @throws IOException Not thrown by the sink.
+     */
+    @Benchmark
+    public long write() throws IOException
+    {
+        writer.write(tree, sink);
+        return sink.count;
+    }
+}
@@ -4,7 +4,7 @@ longP="net/sourceforge/olduvai"
 buildP="build"
 
 #compile
-javac $longP/treejuxtaposer/drawer/*java $longP/treejuxtaposer/*java
+javac $longP/treejuxtaposer/drawer/*java $longP/treejuxtaposer/*java $longP/treejuxtaposer/swing/*java $longP/treejuxtaposer/jfr/*java
 
 #copy
 mkdir -p $buildP
@@ -0,0 +1,328 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.io.IOException;
+import java.io.StreamTokenizer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.Stack;
+
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.TreeNode;
+
+/**
+ * Push style parser for semicolon terminated newick trees, for input that arrives in
+ * pieces, such as reads from non-blocking NIO channels.  Each call to
+ * {@link #feed(char[], int, int)} or {@link #feed(ByteBuffer)} parses as far as the
+ * input allows and returns without waiting for more, keeping the node stack of the tree
+ * in progress until the next call, so one thread can serve many concurrent inputs with
+ * one parser each.
+ *
+ * Trees are built exactly as {@link TreeParser#tokenize(long, String, ProgressListener)}
+ * builds them from the same text, with the push mode of {@link NewickLexer}.  Completed
+ * trees are post processed and queued until taken with {@link #nextTree()}.
+ *
+ * @see TreeParser#trees(String)
+ */
+public class IncrementalNewickParser
+{
+    /** Size of the buffer bytes are decoded into. */
+    private static final int decodeBufferSize = 1 << 13;
+
+    /** Lexer fed with the input. */
+    private NewickLexer tokenizer = new NewickLexer();
+    /** Name given to the trees. */
+    private String streamName;
+    /** Decoder for byte input. */
+    private CharsetDecoder decoder;
+    /** Decoded characters on their way to the lexer. */
+    private CharBuffer decoded;
+    /** Bytes of a character split between two byte buffers. */
+    private ByteBuffer partialChar = ByteBuffer.allocate(8);
+    /** Completed trees not taken yet. */
+    private LinkedList trees = new LinkedList();
+    /** True once {@link #end()} was called. */
+    private boolean ended = false;
+    /** Post processing stages run on each completed tree. */
+    private int postProcessStages = Tree.ALL_STAGES;
+
+    /** Tree being parsed, null between trees. */
+    private Tree tree = null;
+    /** Root node of the tree being parsed. */
+    private TreeNode rootNode;
+    /** Nodes that haven't been named yet, as in {@link TreeParser#tokenize(long, String, ProgressListener)}. */
+    private Stack nodeStack;
+    /** Last named node, the node a branch length applies to. */
+    private TreeNode lastNamed;
+    /** True if the next word or number is a node name. */
+    private boolean nameNext;
+
+    /**
+     * Parser for UTF-8 byte input or character input.
+     * @param streamName Name of the trees.
+     */
+    public IncrementalNewickParser(String streamName)
+    {
+        this(streamName, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parser for byte input in the given encoding or character input.
+     * @param streamName Name of the trees.
+     * @param charset Encoding of the buffers given to {@link #feed(ByteBuffer)}.
+     */
+    public IncrementalNewickParser(String streamName, Charset charset)
+    {
+        this.streamName = streamName;
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Chooses the post processing stages run on each tree as it is completed.
+     * @param stages Stages for {@link Tree#postProcess(int)}, {@link Tree#ALL_STAGES} by default.
+     * @see TreeParser#setPostProcessStages(int)
+     */
+    public void setPostProcessStages(int stages)
+    {
+        postProcessStages = stages;
+    }
+
+    /**
+     * Parses the next characters of the input.
+     * @param chars Characters.
+     * @param offset Position of the first character.
+     * @param length Number of characters.
+     * @return Number of trees completed by these characters.
+     * @throws IllegalStateException After {@link #end()}.
+     */
+    public int feed(char[] chars, int offset, int length)
+    {
+        if (ended)
+            throw new IllegalStateException("Input has ended");
+        tokenizer.feed(chars, offset, length);
+        return parse();
+    }
+
+    /**
+     * Decodes and parses the next bytes of the input.  All remaining bytes of the buffer
+     * are consumed; the bytes of a character cut off at the end are kept for the next call.
+     * @param bytes Bytes, read from position to limit.
+     * @return Number of trees completed by these bytes.
+     * @throws IllegalStateException After {@link #end()}.
+     */
+    public int feed(ByteBuffer bytes)
+    {
+        if (ended)
+            throw new IllegalStateException("Input has ended");
+        if (decoded == null)
+            decoded = CharBuffer.allocate(decodeBufferSize);
+        // complete a character split by the previous buffer, a byte at a time
+        while (partialChar.position() > 0 && bytes.hasRemaining())
+        {
+            partialChar.put(bytes.get());
+            partialChar.flip();
+            decode(partialChar, false);
+            partialChar.compact();
+        }
+        decode(bytes, false);
+        if (bytes.hasRemaining())
+            partialChar.put(bytes);
+        return parse();
+    }
+
+    /**
+     * Decodes bytes and feeds the characters to the lexer.
+     * @param bytes Bytes to decode; an incomplete character at the end is left in the buffer.
+     * @param endOfInput True if no more bytes follow.
+     */
+    private void decode(ByteBuffer bytes, boolean endOfInput)
+    {
+        while (true)
+        {
+            boolean full = decoder.decode(bytes, decoded, endOfInput).isOverflow();
+            decoded.flip();
+            if (decoded.hasRemaining())
+                tokenizer.feed(decoded.array(), decoded.position(), decoded.remaining());
+            decoded.clear();
+            if (!full)
+                return;
+        }
+    }
+
+    /**
+     * Marks the end of the input.  A last tree without a terminating semicolon is
+     * completed, as {@link TreeParser#tokenize(long, String, ProgressListener)}
+     * completes a tree at the end of a file.
+     * @return Number of trees completed.
+     */
+    public int end()
+    {
+        if (ended)
+            return 0;
+        if (decoded != null)
+        {
+            partialChar.flip();
+            decode(partialChar, true);
+            while (decoder.flush(decoded).isOverflow() || decoded.position() > 0)
+            {
+                decoded.flip();
+                tokenizer.feed(decoded.array(), 0, decoded.remaining());
+                decoded.clear();
+            }
+        }
+        ended = true;
+        tokenizer.endInput();
+        return parse();
+    }
+
+    /**
+     * Tests if a completed tree is waiting.
+     * @return True if {@link #nextTree()} returns a tree.
+     */
+    public boolean hasTree()
+    {
+        return !trees.isEmpty();
+    }
+
+    /**
+     * Takes the oldest completed tree.
+     * @return Post processed tree, or null if no tree is complete.
+     */
+    public Tree nextTree()
+    {
+        return trees.isEmpty() ? null : (Tree) trees.removeFirst();
+    }
+
+    /**
+     * Tests if the input ends inside a tree, for example to reject a connection that
+     * closes early.
+     * @return True if a tree has been started but not completed.
+     */
+    public boolean isInTree()
+    {
+        return tree != null;
+    }
+
+    /**
+     * Parses all complete tokens of the input, the loop of
+     * {@link TreeParser#tokenize(long, String, ProgressListener)} made resumable.
+     * @return Number of trees completed.
+     */
+    private int parse()
+    {
+        final char openBracket = '(', closeBracket = ')', childSeparator = ',',
+            treeTerminator = ';', doubleQuote = '"', infoSeparator = ':';
+        int completed = 0;
+        try
+        {
+            while (true)
+            {
+                int thisToken = tokenizer.nextToken();
+                if (thisToken == NewickLexer.TT_NEED_INPUT)
+                    break;
+                if (thisToken == StreamTokenizer.TT_EOF)
+                {
+                    if (tree != null)
+                    {
+                        finishTree();
+                        completed++;
+                    }
+                    break;
+                }
+                if (tree == null)
+                    startTree();
+                switch (thisToken)
+                {
+                    case doubleQuote:
+                    case StreamTokenizer.TT_WORD:
+                        if (!nameNext)
+                            System.err.println("Error: didn't expect this name here: " + tokenizer.sval);
+                        lastNamed = TreeParser.popAndName(tokenizer.sval, nodeStack, rootNode);
+                        nameNext = false;
+                        break;
+                    case StreamTokenizer.TT_NUMBER:
+                        if (nameNext)
+                            lastNamed = TreeParser.popAndName(tokenizer.sval, nodeStack, rootNode);
+                        else
+                        {
+                            if (lastNamed != null)
+                                lastNamed.setWeight(tokenizer.nval);
+                            else
+                                System.err.println("Error: can't set value " + tokenizer.nval + " to a null node");
+                            lastNamed = null;
+                        }
+                        nameNext = false;
+                        break;
+                    case infoSeparator:
+                        if (nameNext)
+                            lastNamed = TreeParser.popAndName(null, nodeStack, rootNode);
+                        nameNext = false;
+                        break;
+                    case treeTerminator:
+                        if (nameNext)
+                            lastNamed = TreeParser.popAndName(null, nodeStack, rootNode);
+                        finishTree();
+                        completed++;
+                        break;
+                    case openBracket:
+                        nodeStack.push(new TreeNode());
+                        nameNext = true;
+                        break;
+                    case closeBracket:
+                        if (nameNext)
+                            lastNamed = TreeParser.popAndName(null, nodeStack, rootNode);
+                        nameNext = true;
+                        break;
+                    case childSeparator:
+                        if (nameNext)
+                            lastNamed = TreeParser.popAndName(null, nodeStack, rootNode);
+                        nodeStack.push(new TreeNode());
+                        nameNext = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // push mode lexers don't read
+        }
+        return completed;
+    }
+
+    /**
+     * Starts a tree at its first token.
+     */
+    private void startTree()
+    {
+        rootNode = new TreeNode();
+        tree = new Tree();
+        tree.setRootNode(rootNode);
+        tree.setFileName(streamName);
+        nodeStack = new Stack();
+        nodeStack.push(rootNode);
+        lastNamed = null;
+        nameNext = true;
+    }
+
+    /**
+     * Post processes and queues the tree in progress.
+     */
+    private void finishTree()
+    {
+        if (!nodeStack.isEmpty())
+            System.err.println("Node stack still has " + nodeStack.size() + " things");
+        tree.postProcess(postProcessStages);
+        trees.add(tree);
+        tree = null;
+        rootNode = null;
+        nodeStack = null;
+        lastNamed = null;
+    }
+}
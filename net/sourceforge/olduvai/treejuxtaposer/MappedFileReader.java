@@ -0,0 +1,209 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader over a memory mapped file.  Bytes are decoded straight from the
+ * {@link MappedByteBuffer} into the caller's char array, so there is no
+ * intermediate byte copy and no decoding ahead of the parser.
+ * Files larger than the window size (and so larger than the 2 GB limit of a
+ * single mapping) are mapped one window at a time.
+ *
+ * Used by {@link TreeParser#TreeParser(java.nio.file.Path)} together with
+ * {@link NewickLexer}, which reads in large blocks.
+ */
+public class MappedFileReader extends Reader
+{
+    /** Default mapping window, 1 GB. */
+    public static final long defaultWindowSize = 1L << 30;
+
+    /** Channel being mapped. */
+    private FileChannel channel;
+    /** True if {@link #close()} should close {@link #channel}. */
+    private boolean ownsChannel;
+    /** Size of each mapped window. */
+    private long windowSize;
+    /** File position of the start of {@link #window}. */
+    private long windowStart;
+    /** File position after the last byte to read, the file size unless a range was given. */
+    private long fileSize;
+    /** File position mappings may extend to, past {@link #fileSize} once {@link #reset(long, long)} was used. */
+    private long mapLimit;
+    /** Currently mapped window, null before the first read. */
+    private MappedByteBuffer window;
+    /** Decoder from file bytes to chars. */
+    private CharsetDecoder decoder;
+    /** True once the decoder has seen the end of the input and been flushed. */
+    private boolean finished = false;
+    /** Low surrogate left over when a caller asked for a single char and got a surrogate pair, or -1. */
+    private int pendingChar = -1;
+
+    /**
+     * UTF-8 reader over the whole file, with the default window size.
+     * @param channel Channel to read; not closed by this reader.
+     * @throws IOException If the file size can't be read.
+     */
+    public MappedFileReader(FileChannel channel) throws IOException
+    {
+        this(channel, StandardCharsets.UTF_8, defaultWindowSize, false);
+    }
+
+    /**
+     * Reader over the whole file.
+     * @param channel Channel to read.
+     * @param charset Encoding of the file.
+     * @param windowSize Maximum size of a mapped region, from 16 bytes to Integer.MAX_VALUE.
+     * @param ownsChannel True to close the channel when this reader is closed.
+     * @throws IOException If the file size can't be read.
+     */
+    public MappedFileReader(FileChannel channel, Charset charset, long windowSize, boolean ownsChannel) throws IOException
+    {
+        this(channel, charset, windowSize, ownsChannel, 0, channel.size());
+    }
+
+    /**
+     * Reader over a byte range of a file.
+     * @param channel Channel to read.
+     * @param charset Encoding of the file.
+     * @param windowSize Maximum size of a mapped region, from 16 bytes to Integer.MAX_VALUE.
+     * @param ownsChannel True to close the channel when this reader is closed.
+     * @param start File position of the first byte to read.
+     * @param end File position after the last byte to read.
+     */
+    public MappedFileReader(FileChannel channel, Charset charset, long windowSize, boolean ownsChannel,
+            long start, long end)
+    {
+        if (windowSize < 16 || windowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Bad mapping window size: " + windowSize);
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.windowSize = windowSize;
+        this.windowStart = start;
+        this.fileSize = end;
+        this.mapLimit = end;
+        decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Maps the next window, starting at the first byte the decoder hasn't consumed.
+     * @return False if there are no bytes left to map.
+     * @throws IOException On mapping errors.
+     */
+    private boolean mapNext() throws IOException
+    {
+        if (window != null)
+            windowStart += window.position();
+        if (fileSize - windowStart <= 0)
+            return false;
+        long size = Math.min(windowSize, mapLimit - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+        window.limit((int) Math.min(size, fileSize - windowStart));
+        return true;
+    }
+
+    /**
+     * Points this reader at another byte range of the same file, for reading many small
+     * ranges without a mapping each.  The current window is reused if it holds the range;
+     * otherwise a window reaching as far past the range as the window size allows is
+     * mapped, so ranges read in file order share windows.
+     * @param start File position of the first byte to read.
+     * @param end File position after the last byte to read.
+     * @throws IOException If the file size can't be read.
+     */
+    public void reset(long start, long end) throws IOException
+    {
+        if (channel == null)
+            throw new IOException("Reader closed");
+        mapLimit = Math.max(mapLimit, channel.size());
+        decoder.reset();
+        finished = false;
+        pendingChar = -1;
+        fileSize = end;
+        long mapStart = (window == null) ? -1 : windowStart;
+        if (window != null && start >= mapStart && end <= mapStart + window.capacity())
+        {
+            window.limit((int) (end - mapStart));
+            window.position((int) (start - mapStart));
+        }
+        else
+        {
+            window = null;
+            windowStart = start;
+        }
+    }
+
+    /**
+     * Decodes characters from the mapped file into the given array.
+     * @param cbuf Destination.
+     * @param off Offset of the first char to write.
+     * @param len Maximum number of chars to write.
+     * @return Number of chars read, or -1 at the end of the file.
+     * @throws IOException On mapping errors.
+     */
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if (channel == null)
+            throw new IOException("Reader closed");
+        if (len == 0)
+            return 0;
+        if (pendingChar >= 0)
+        {
+            cbuf[off] = (char) pendingChar;
+            pendingChar = -1;
+            return 1;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !finished)
+        {
+            if (window == null && !mapNext())
+            {
+                finished = true; // empty file
+                break;
+            }
+            boolean lastWindow = windowStart + window.limit() >= fileSize;
+            CoderResult result = decoder.decode(window, out, lastWindow);
+            if (out.position() > off)
+                break;
+            if (result.isOverflow())
+            {
+                // a surrogate pair doesn't fit in a single char
+                CharBuffer pair = CharBuffer.allocate(2);
+                decoder.decode(window, pair, lastWindow);
+                cbuf[off] = pair.get(0);
+                pendingChar = pair.get(1);
+                return 1;
+            }
+            // window used up, at most a partial character is left for the next one
+            if (lastWindow || !mapNext())
+            {
+                decoder.flush(out);
+                finished = true;
+            }
+        }
+        int n = out.position() - off;
+        return n == 0 ? -1 : n;
+    }
+
+    /**
+     * Closes the channel if this reader owns it and drops the mapped window.
+     * @throws IOException If the channel can't be closed.
+     */
+    public void close() throws IOException
+    {
+        window = null;
+        if (channel != null && ownsChannel)
+            channel.close();
+        channel = null;
+    }
+}
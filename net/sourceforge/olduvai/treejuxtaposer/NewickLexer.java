@@ -0,0 +1,712 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+
+/**
+ * Hand-written replacement for the {@link StreamTokenizer} set up in
+ * {@link TreeParser#TreeParser(java.io.BufferedReader)}.
+ *
+ * Scans a reusable char buffer filled straight from a {@link Reader} (no
+ * per-character virtual calls), builds numbers arithmetically instead of
+ * through intermediate Strings and skips Nexus/Newick <code>[...]</code>
+ * comments while scanning.  Tokens are classified exactly as the tokenizer
+ * table in TreeParser classifies them, so the public fields {@link #ttype},
+ * {@link #sval} and {@link #nval} hold the same values StreamTokenizer would:
+ * <ul>
+ * <li>whitespace: 0-32 (line ends are not significant)</li>
+ * <li>numbers: start with a digit, '.' or '-' followed by a digit or '.'; only digits and one '.' are read</li>
+ * <li>words: letters, digits and all symbols other than <code>"()[],:;=\</code>; characters from 160 up</li>
+ * <li>quoted strings: <code>"..."</code>, with backslash escapes, ending at a line end</li>
+ * <li>everything else is returned as an ordinary character token</li>
+ * </ul>
+ * The one deliberate difference is comments: the old tokenizer handed
+ * <code>[</code> back as an ordinary character and left it to the caller,
+ * which broke Newick trees with comments in them; this lexer never returns
+ * <code>[</code>, so the caller's comment eating code is simply not reached.
+ *
+ * A lexer can also wrap a configured StreamTokenizer ({@link #NewickLexer(StreamTokenizer)}),
+ * which is how {@link TreeParser} keeps the old tokenizer selectable.
+ *
+ * A lexer created with {@link #NewickLexer()} has no reader: characters are pushed in
+ * with {@link #feed(char[], int, int)} as they arrive, and {@link #nextToken()} returns
+ * {@link #TT_NEED_INPUT} instead of blocking when a token isn't complete yet.  The
+ * partial token is scanned again once more characters are fed, so tokens are exactly
+ * those of the reader based lexer no matter how the input is split.
+ *
+ * @see TreeParser#setUseNewickLexer(boolean)
+ */
+public class NewickLexer
+{
+    /** End of stream token, same value as {@link StreamTokenizer#TT_EOF}. */
+    public static final int TT_EOF = StreamTokenizer.TT_EOF;
+    /** Word token, same value as {@link StreamTokenizer#TT_WORD}. */
+    public static final int TT_WORD = StreamTokenizer.TT_WORD;
+    /** Number token, same value as {@link StreamTokenizer#TT_NUMBER}. */
+    public static final int TT_NUMBER = StreamTokenizer.TT_NUMBER;
+    /** No token read yet, same value as StreamTokenizer uses. */
+    private static final int TT_NOTHING = -4;
+    /** Push mode only: the fed characters end inside a token, feed more or end the input. */
+    public static final int TT_NEED_INPUT = -5;
+
+    /** Character class: whitespace. */
+    private static final byte CT_WHITESPACE = 1;
+    /** Character class: digits and the number characters '.' and '-'. */
+    private static final byte CT_DIGIT = 2;
+    /** Character class: word character. */
+    private static final byte CT_ALPHA = 4;
+    /** Character class: string quote. */
+    private static final byte CT_QUOTE = 8;
+
+    /** Comment open, skipped up to {@link #commentClose}. */
+    private static final char commentOpen = '[';
+    /** Comment close. */
+    private static final char commentClose = ']';
+    /** Quote character for labels with spaces or Newick punctuation. */
+    private static final char quote = '"';
+
+    /** Character classes for 0-255, matches the table built in TreeParser. */
+    private static final byte[] ctype = new byte[256];
+    static
+    {
+        for (int c = 0; c <= ' '; c++)
+            ctype[c] = CT_WHITESPACE;
+        for (int c = '!'; c < 127; c++)
+            ctype[c] = CT_ALPHA;
+        for (int c = 160; c < 256; c++)
+            ctype[c] = CT_ALPHA;
+        for (int c = '0'; c <= '9'; c++)
+            ctype[c] = CT_DIGIT;
+        ctype['.'] = CT_DIGIT | CT_ALPHA;
+        ctype['-'] = CT_DIGIT | CT_ALPHA;
+        ctype[quote] = CT_QUOTE;
+        String ordinary = "()[],:;=\\";
+        for (int i = 0; i < ordinary.length(); i++)
+            ctype[ordinary.charAt(i)] = 0;
+    }
+
+    /** Type of the last token read, a character or one of the TT_ constants. */
+    public int ttype = TT_NOTHING;
+    /** Word or quoted string value of the last token, null otherwise. */
+    public String sval;
+    /** Value of the last number token. */
+    public double nval;
+    /** Number of characters consumed by the last token, for progress counting. */
+    public int tokenLength;
+
+    /** Input, null when this lexer wraps a {@link #legacy} tokenizer. */
+    private Reader in;
+    /** Wrapped tokenizer for the old parsing path. */
+    private StreamTokenizer legacy;
+    /** Input buffer. */
+    private char[] buf;
+    /** Next unread position in {@link #buf}. */
+    private int pos;
+    /** End of valid data in {@link #buf}. */
+    private int limit;
+    /** Scratch for words that span buffer refills and for quoted strings. */
+    private char[] scratch = new char[64];
+    /** True if {@link #pushBack()} was called. */
+    private boolean pushedBack;
+    /** Push mode: true once {@link #endInput()} was called. */
+    private boolean inputEnded = false;
+    /** Push mode: position to rescan from when a token runs past the fed characters. */
+    private int tokenStart;
+    /** Recently read words, reused instead of new strings; null unless {@link #setWordCache(int)} was called. */
+    private String[] words;
+    /** Longest probe sequence in {@link #words} before a slot is replaced. */
+    private static final int wordProbes = 4;
+    /** Characters dropped from the front of {@link #buf} so far, for {@link #getPosition()}. */
+    private long base = 0;
+    /** True to time the reads of {@link #fill()}. */
+    private boolean timeReads = false;
+    /** Nanoseconds spent reading from the reader, while {@link #timeReads} is set. */
+    private long readNanos = 0;
+
+    /** Thrown by {@link #fill()} in push mode when more characters are needed. */
+    private static final class NeedInput extends RuntimeException
+    {
+        /** Serialization version. */
+        private static final long serialVersionUID = 1L;
+
+        /** No message or stack trace, the single instance is thrown for control flow. */
+        NeedInput()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    /** The one {@link NeedInput} instance. */
+    private static final NeedInput needInput = new NeedInput();
+
+    /**
+     * Lexer reading from the given reader.  The reader does not need to be buffered.
+     * @param r Source of Newick or Nexus characters.
+     */
+    public NewickLexer(Reader r)
+    {
+        this(r, 1 << 16);
+    }
+
+    /**
+     * Lexer reading from the given reader with a specific buffer size.
+     * @param r Source of Newick or Nexus characters.
+     * @param bufferSize Size of the char buffer refilled from the reader.
+     */
+    public NewickLexer(Reader r, int bufferSize)
+    {
+        in = r;
+        buf = new char[bufferSize];
+    }
+
+    /**
+     * Push mode lexer, fed with {@link #feed(char[], int, int)} and {@link #endInput()}.
+     */
+    public NewickLexer()
+    {
+        buf = new char[1 << 12];
+    }
+
+    /**
+     * Lexer that forwards to an already configured tokenizer, for the old parsing path.
+     * @param st Tokenizer to read tokens from.
+     */
+    public NewickLexer(StreamTokenizer st)
+    {
+        legacy = st;
+    }
+
+    /**
+     * Causes the next call to {@link #nextToken()} to return the current token again.
+     */
+    public void pushBack()
+    {
+        if (legacy != null)
+        {
+            legacy.pushBack();
+            base -= tokenLength; // counted again when it is reread
+        }
+        else if (ttype != TT_NOTHING)
+            pushedBack = true;
+    }
+
+    /**
+     * Closes the reader this lexer reads from.  Does nothing for a wrapped tokenizer.
+     * @throws IOException If the reader can't be closed.
+     */
+    public void close() throws IOException
+    {
+        if (in != null)
+            in.close();
+    }
+
+    /**
+     * Points this lexer at a new reader, keeping its buffers and word cache.
+     * Wrapped tokenizers and push mode input are dropped.
+     * @param r Source of Newick or Nexus characters.
+     */
+    public void reset(Reader r)
+    {
+        in = r;
+        legacy = null;
+        if (buf == null)
+            buf = new char[1 << 16];
+        base = 0;
+        pos = 0;
+        limit = 0;
+        pushedBack = false;
+        inputEnded = false;
+        ttype = TT_NOTHING;
+        sval = null;
+    }
+
+    /**
+     * Caches word and quoted string tokens, so text that repeats (the taxon names of
+     * a stream of posterior trees) gives the same String object instead of a new one.
+     * Words that collide in the cache are created again, which is always correct.
+     * @param expectedWords Number of different words expected, 0 to turn caching off.
+     */
+    public void setWordCache(int expectedWords)
+    {
+        if (expectedWords <= 0)
+        {
+            words = null;
+            return;
+        }
+        int size = 64;
+        while (size < expectedWords * 2 && size < (1 << 24))
+            size <<= 1;
+        if (words == null || words.length != size)
+            words = new String[size];
+    }
+
+    /**
+     * Returns the string of a word, from the cache if it was seen recently.
+     * @param chars Characters of the word.
+     * @param offset Start of the word.
+     * @param length Length of the word.
+     * @return String with these characters.
+     */
+    private String word(char[] chars, int offset, int length)
+    {
+        if (words == null)
+            return new String(chars, offset, length);
+        int h = 0;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + chars[i];
+        int mask = words.length - 1;
+        int slot = (h ^ (h >>> 16)) & mask;
+        for (int p = 1; ; p++)
+        {
+            String w = words[slot];
+            if (w == null)
+                break;
+            if (w.length() == length && w.hashCode() == h && matches(w, chars, offset))
+                return w;
+            if (p == wordProbes)
+                break; // replace the last word probed
+            slot = (slot + 1) & mask;
+        }
+        String w = new String(chars, offset, length);
+        words[slot] = w;
+        return w;
+    }
+
+    /**
+     * Compares a string with characters of the buffer.
+     * @param w String of the same length.
+     * @param chars Characters.
+     * @param offset Start of the characters.
+     * @return True if they are equal.
+     */
+    private static boolean matches(String w, char[] chars, int offset)
+    {
+        for (int i = 0; i < w.length(); i++)
+            if (w.charAt(i) != chars[offset + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the number of characters scanned so far, including whitespace and comments.
+     * A wrapped tokenizer doesn't expose its position, so for it this is the total
+     * {@link #tokenLength} of the tokens read, without whitespace and comments.
+     * @return Input position.
+     */
+    public long getPosition()
+    {
+        return base + pos;
+    }
+
+    /**
+     * Turns timing of the reads from the reader on or off.
+     * @param time True to add the time spent in the reader to {@link #getReadNanos()}.
+     */
+    public void setTimeReads(boolean time)
+    {
+        timeReads = time;
+    }
+
+    /**
+     * Returns the time spent reading from the reader while timing was on, which is the
+     * I/O (and for mapped files, page fault and decoding) part of parsing.
+     * @return Nanoseconds.
+     */
+    public long getReadNanos()
+    {
+        return readNanos;
+    }
+
+    /**
+     * Returns the last number token as it was written, "4" rather than the 4.0 in
+     * {@link #nval}, for numbers used as names.  Numbers split by a buffer refill or
+     * read by a wrapped tokenizer are rebuilt from their value.
+     * @return Text of the number.
+     */
+    public String numberText()
+    {
+        if (legacy == null && pos >= tokenLength)
+            return new String(buf, pos - tokenLength, tokenLength);
+        if (nval == (long) nval)
+            return Long.toString((long) nval);
+        return Double.toString(nval);
+    }
+
+    /**
+     * Appends characters to the input of a push mode lexer.  Characters already scanned
+     * are dropped from the buffer first.
+     * @param chars Characters to append.
+     * @param offset Position of the first character.
+     * @param length Number of characters.
+     * @throws IllegalStateException If this lexer reads from a reader or the input has ended.
+     */
+    public void feed(char[] chars, int offset, int length)
+    {
+        if (in != null || legacy != null || inputEnded)
+            throw new IllegalStateException("Lexer does not accept input");
+        int unread = limit - pos;
+        if (unread + length > buf.length)
+        {
+            char[] bigger = new char[Math.max(unread + length, buf.length * 2)];
+            System.arraycopy(buf, pos, bigger, 0, unread);
+            buf = bigger;
+        }
+        else
+            System.arraycopy(buf, pos, buf, 0, unread);
+        System.arraycopy(chars, offset, buf, unread, length);
+        base += pos;
+        pos = 0;
+        limit = unread + length;
+    }
+
+    /**
+     * Marks the end of the input of a push mode lexer: the fed characters are all
+     * there is, the last token ends with them and {@link #TT_EOF} follows it.
+     */
+    public void endInput()
+    {
+        inputEnded = true;
+    }
+
+    /**
+     * Refills {@link #buf} from the reader.  In push mode there is nothing to read:
+     * returns false once the input has ended and asks for more input before that.
+     * @return False at the end of the input.
+     * @throws IOException On read errors.
+     * @throws NeedInput In push mode, if the input hasn't ended.
+     */
+    private boolean fill() throws IOException
+    {
+        if (in == null)
+        {
+            if (!inputEnded)
+                throw needInput;
+            return false;
+        }
+        long start = timeReads ? System.nanoTime() : 0;
+        int n;
+        do
+            n = in.read(buf, 0, buf.length);
+        while (n == 0);
+        if (timeReads)
+            readNanos += System.nanoTime() - start;
+        base += pos;
+        pos = 0;
+        limit = n < 0 ? 0 : n;
+        return n > 0;
+    }
+
+    /**
+     * Character class lookup, characters from 256 up are word characters.
+     * @param c Character to classify.
+     * @return Character class bits.
+     */
+    private static int classOf(int c)
+    {
+        return c < 256 ? ctype[c] : CT_ALPHA;
+    }
+
+    /**
+     * Reads the next token.
+     * @return Type of the token, also stored in {@link #ttype}.
+     * @throws IOException On read errors.
+     */
+    public int nextToken() throws IOException
+    {
+        if (legacy != null)
+        {
+            ttype = legacy.nextToken();
+            sval = legacy.sval;
+            nval = legacy.nval;
+            if (ttype == TT_WORD)
+                tokenLength = sval.length();
+            else if (ttype == TT_NUMBER)
+                tokenLength = Double.toString(nval).length();
+            else if (ttype == TT_EOF)
+                tokenLength = 0;
+            else
+                tokenLength = 1;
+            base += tokenLength;
+            return ttype;
+        }
+        if (pushedBack)
+        {
+            pushedBack = false;
+            return ttype;
+        }
+        if (in == null)
+        {
+            tokenStart = pos;
+            try
+            {
+                return scan();
+            }
+            catch (NeedInput e)
+            {
+                pos = tokenStart;
+                sval = null;
+                return ttype = TT_NEED_INPUT;
+            }
+        }
+        return scan();
+    }
+
+    /**
+     * Scans the next token from the buffer.
+     * @return Type of the token, also stored in {@link #ttype}.
+     * @throws IOException On read errors.
+     */
+    private int scan() throws IOException
+    {
+        sval = null;
+        int c;
+        int ct;
+        // skip whitespace and comments
+        while (true)
+        {
+            if (pos == limit)
+            {
+                tokenStart = pos; // whitespace and comments so far need not be scanned again
+                if (!fill())
+                {
+                    tokenLength = 0;
+                    return ttype = TT_EOF;
+                }
+            }
+            c = buf[pos];
+            ct = classOf(c);
+            if ((ct & CT_WHITESPACE) != 0)
+                pos++;
+            else if (c == commentOpen)
+                skipComment();
+            else
+                break;
+        }
+        if ((ct & CT_DIGIT) != 0)
+            return readNumber(c);
+        if ((ct & CT_ALPHA) != 0)
+            return readWord();
+        pos++;
+        if ((ct & CT_QUOTE) != 0)
+            return readQuoted(c);
+        tokenLength = 1;
+        return ttype = c;
+    }
+
+    /**
+     * Skips a comment, including nested comments.  {@link #pos} is on the opening bracket.
+     * @throws IOException On read errors.
+     */
+    private void skipComment() throws IOException
+    {
+        int depth = 0;
+        do
+        {
+            if (pos == limit && !fill())
+                return;
+            char c = buf[pos++];
+            if (c == commentOpen)
+                depth++;
+            else if (c == commentClose)
+                depth--;
+        }
+        while (depth > 0);
+    }
+
+    /**
+     * Reads a number the way StreamTokenizer does: an optional '-', digits and at most one '.'.
+     * A '-' that isn't followed by a digit or '.' is returned as an ordinary character.
+     * @param c First character of the number, at {@link #pos}.
+     * @return {@link #TT_NUMBER} or '-'.
+     * @throws IOException On read errors.
+     */
+    private int readNumber(int c) throws IOException
+    {
+        boolean neg = false;
+        int length = 0;
+        if (c == '-')
+        {
+            pos++;
+            length++;
+            if (pos == limit && !fill())
+                c = -1;
+            else
+                c = buf[pos];
+            if (c != '.' && (c < '0' || c > '9'))
+            {
+                tokenLength = 1;
+                return ttype = '-';
+            }
+            neg = true;
+        }
+        double v = 0;
+        int decexp = 0;
+        int seendot = 0;
+        while (true)
+        {
+            if (c == '.' && seendot == 0)
+                seendot = 1;
+            else if ('0' <= c && c <= '9')
+            {
+                v = v * 10 + (c - '0');
+                decexp += seendot;
+            }
+            else
+                break;
+            pos++;
+            length++;
+            if (pos == limit && !fill())
+                break;
+            c = buf[pos];
+        }
+        if (decexp != 0)
+        {
+            double denom = 10;
+            decexp--;
+            while (decexp > 0)
+            {
+                denom *= 10;
+                decexp--;
+            }
+            v = v / denom;
+        }
+        nval = neg ? -v : v;
+        tokenLength = length;
+        return ttype = TT_NUMBER;
+    }
+
+    /**
+     * Reads a word, which continues through word characters and number characters.
+     * @return {@link #TT_WORD}.
+     * @throws IOException On read errors.
+     */
+    private int readWord() throws IOException
+    {
+        int start = pos;
+        while (pos < limit && (classOf(buf[pos]) & (CT_ALPHA | CT_DIGIT)) != 0)
+            pos++;
+        if (pos < limit)
+        {
+            // common case, the whole word is in the buffer
+            sval = word(buf, start, pos - start);
+            tokenLength = pos - start;
+            return ttype = TT_WORD;
+        }
+        int length = 0;
+        while (true)
+        {
+            int n = pos - start;
+            ensureScratch(length + n);
+            System.arraycopy(buf, start, scratch, length, n);
+            length += n;
+            if (!fill())
+                break;
+            start = 0;
+            while (pos < limit && (classOf(buf[pos]) & (CT_ALPHA | CT_DIGIT)) != 0)
+                pos++;
+            if (pos < limit)
+            {
+                n = pos;
+                ensureScratch(length + n);
+                System.arraycopy(buf, 0, scratch, length, n);
+                length += n;
+                break;
+            }
+        }
+        sval = word(scratch, 0, length);
+        tokenLength = length;
+        return ttype = TT_WORD;
+    }
+
+    /**
+     * Grows {@link #scratch} to hold at least the given number of characters.
+     * @param size Required capacity.
+     */
+    private void ensureScratch(int size)
+    {
+        if (size > scratch.length)
+        {
+            char[] bigger = new char[Math.max(size, scratch.length * 2)];
+            System.arraycopy(scratch, 0, bigger, 0, scratch.length);
+            scratch = bigger;
+        }
+    }
+
+    /**
+     * Reads the next character of a quoted string, or -1 at the end of input.
+     * @return Next character.
+     * @throws IOException On read errors.
+     */
+    private int read() throws IOException
+    {
+        if (pos == limit && !fill())
+            return -1;
+        return buf[pos++];
+    }
+
+    /**
+     * Reads a quoted string, with the same escape handling as StreamTokenizer.
+     * The string ends at the matching quote, a line end or the end of the input.
+     * @param q The quote character, already consumed.
+     * @return The quote character, the string is in {@link #sval}.
+     * @throws IOException On read errors.
+     */
+    private int readQuoted(int q) throws IOException
+    {
+        int length = 0;
+        int consumed = 1;
+        int c = read();
+        while (c >= 0 && c != q && c != '\n' && c != '\r')
+        {
+            consumed++;
+            if (c == '\\')
+            {
+                c = read();
+                consumed++;
+                int first = c;
+                if (c >= '0' && c <= '7')
+                {
+                    c = c - '0';
+                    int c2 = read();
+                    if ('0' <= c2 && c2 <= '7')
+                    {
+                        consumed++;
+                        c = (c << 3) + (c2 - '0');
+                        c2 = read();
+                        if ('0' <= c2 && c2 <= '7' && first <= '3')
+                        {
+                            consumed++;
+                            c = (c << 3) + (c2 - '0');
+                            c2 = read();
+                        }
+                    }
+                    ensureScratch(length + 1);
+                    scratch[length++] = (char) c;
+                    c = c2;
+                    continue;
+                }
+                switch (c)
+                {
+                    case 'a': c = 0x7; break;
+                    case 'b': c = '\b'; break;
+                    case 'f': c = 0xC; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'v': c = 0xB; break;
+                }
+            }
+            ensureScratch(length + 1);
+            scratch[length++] = (char) c;
+            c = read();
+        }
+        if (c == q)
+            consumed++;
+        else if (c >= 0)
+            pos--; // line end is not part of the string
+        sval = word(scratch, 0, length);
+        tokenLength = consumed;
+        return ttype = q;
+    }
+}
@@ -0,0 +1,486 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.TreeNode;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.TreeTraversal;
+import net.sourceforge.olduvai.treejuxtaposer.drawer.TreeVisitor;
+
+/**
+ * Writes trees as newick text, or as the trees block of a nexus file, that
+ * {@link TreeParser} reads back into the same trees.
+ *
+ * Nodes are written in one walk over the {@link TreeNode#preorderNext} links, closing
+ * subtrees at each leaf, so nothing recurses.  Names and branch lengths are put straight
+ * into a reusable char buffer: lengths are rounded to a fixed number of decimals and
+ * printed without going through {@link Double#toString(double)}, so writing a tree
+ * creates no objects per node.  The buffer goes to a {@link Writer}, or is encoded as
+ * UTF-8 into a reusable byte buffer for a {@link WritableByteChannel}.
+ *
+ * Nodes are written with their {@link TreeNode#label}, the name read from the input
+ * before duplicate names were numbered.  A name is quoted only when {@link NewickLexer}
+ * would not read it back as one word.  Lengths that round to zero are left out, since
+ * parsed trees store a missing length as zero.  A writer may not be used by two threads
+ * at the same time.
+ */
+public class NewickWriter
+{
+    /** Size of the character buffer. */
+    private static final int bufferSize = 1 << 16;
+    /** Powers of ten up to the largest precision. */
+    private static final long[] powers = new long[19];
+    static
+    {
+        powers[0] = 1;
+        for (int i = 1; i < powers.length; i++)
+            powers[i] = powers[i - 1] * 10;
+    }
+
+    /** Number of decimals written for branch lengths. */
+    private int precision = 6;
+    /** True to write branch lengths. */
+    private boolean writeLengths = true;
+
+    /** Output buffer. */
+    private char[] buf = new char[bufferSize];
+    /** Number of characters in {@link #buf}. */
+    private int count;
+    /** Destination when writing to a writer. */
+    private Writer writer;
+    /** Destination when writing to a channel. */
+    private WritableByteChannel channel;
+    /** UTF-8 encoder for channels, created on first use. */
+    private CharsetEncoder encoder;
+    /** Encoded bytes for channels, created on first use. */
+    private ByteBuffer bytes;
+    /** Walk for trees without preorder links, created on first use. */
+    private TreeTraversal traversal;
+
+    /**
+     * Sets the number of decimals of branch lengths, 6 by default.
+     * @param digits Decimals, 0 to 18.
+     * @throws IllegalArgumentException If digits is out of range.
+     */
+    public void setPrecision(int digits)
+    {
+        if (digits < 0 || digits >= powers.length)
+            throw new IllegalArgumentException("Precision must be 0 to " + (powers.length - 1));
+        precision = digits;
+    }
+
+    /**
+     * Chooses whether branch lengths are written.
+     * @param lengths True (default) to write the {@link TreeNode#weight} of each node, false for topology only.
+     */
+    public void setWriteLengths(boolean lengths)
+    {
+        writeLengths = lengths;
+    }
+
+    /**
+     * Writes a tree followed by a semicolon and a line end.
+     * @param t Tree to write.
+     * @param out Destination, not flushed or closed.
+     * @throws IOException On write errors.
+     */
+    public void write(Tree t, Writer out) throws IOException
+    {
+        write(t.getRoot(), out);
+    }
+
+    /**
+     * Writes a subtree as a tree, followed by a semicolon and a line end.
+     * @param root Root of the subtree.
+     * @param out Destination, not flushed or closed.
+     * @throws IOException On write errors.
+     */
+    public void write(TreeNode root, Writer out) throws IOException
+    {
+        writer = out;
+        try
+        {
+            writeTree(root);
+            flush();
+        }
+        finally
+        {
+            writer = null;
+        }
+    }
+
+    /**
+     * Writes a tree followed by a semicolon and a line end, in UTF-8.
+     * @param t Tree to write.
+     * @param out Destination, not closed.
+     * @throws IOException On write errors.
+     */
+    public void write(Tree t, WritableByteChannel out) throws IOException
+    {
+        channel = out;
+        try
+        {
+            writeTree(t.getRoot());
+            flush();
+        }
+        finally
+        {
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes a nexus file with a trees block holding the given trees.  Trees are named by
+     * {@link Tree#getName()}, or "tree_" and their position when they have no name.
+     * @param trees Trees to write.
+     * @param out Destination, not flushed or closed.
+     * @throws IOException On write errors.
+     */
+    public void writeNexus(List trees, Writer out) throws IOException
+    {
+        writer = out;
+        try
+        {
+            writeNexus(trees);
+        }
+        finally
+        {
+            writer = null;
+        }
+    }
+
+    /**
+     * Writes a nexus file with a trees block holding the given trees, in UTF-8.
+     * @param trees Trees to write.
+     * @param out Destination, not closed.
+     * @throws IOException On write errors.
+     * @see #writeNexus(List, Writer)
+     */
+    public void writeNexus(List trees, WritableByteChannel out) throws IOException
+    {
+        channel = out;
+        try
+        {
+            writeNexus(trees);
+        }
+        finally
+        {
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes a trees block to the current destination.
+     * @param trees Trees to write.
+     * @throws IOException On write errors.
+     */
+    private void writeNexus(List trees) throws IOException
+    {
+        append("#NEXUS\n\nbegin trees;\n");
+        for (int i = 0; i < trees.size(); i++)
+        {
+            Tree t = (Tree) trees.get(i);
+            append("\ttree ");
+            String name = t.getName();
+            if (name == null || name.length() == 0)
+            {
+                append("tree_");
+                appendLong(i);
+            }
+            else
+                appendName(name);
+            append(" = ");
+            writeTree(t.getRoot());
+        }
+        append("end;\n");
+        flush();
+    }
+
+    /**
+     * Writes a subtree, its semicolon and a line end to the buffer.
+     * @param root Root of the subtree.
+     * @throws IOException On write errors.
+     */
+    private void writeTree(TreeNode root) throws IOException
+    {
+        if (root.leftmostLeaf == null || root.rightmostLeaf == null)
+            writeUnlinked(root);
+        else
+        {
+            for (TreeNode n = root; ; n = n.preorderNext)
+            {
+                if (!n.isLeaf())
+                {
+                    append('(');
+                    continue;
+                }
+                appendNode(n);
+                // close the subtrees this leaf ends
+                TreeNode done = n;
+                while (done != root && done == done.parent.lastChild())
+                {
+                    done = done.parent;
+                    append(')');
+                    appendNode(done);
+                }
+                if (done == root)
+                    break;
+                append(',');
+            }
+        }
+        append(";\n");
+    }
+
+    /**
+     * Writes a subtree that hasn't been linked by post processing, walking its child lists.
+     * @param root Root of the subtree.
+     * @throws IOException On write errors.
+     */
+    private void writeUnlinked(TreeNode root) throws IOException
+    {
+        if (traversal == null)
+            traversal = new TreeTraversal();
+        final IOException[] error = new IOException[1];
+        traversal.eulerTour(root, new TreeVisitor() {
+            public void enter(TreeNode n)
+            {
+                if (!n.isLeaf())
+                    put('(', null);
+            }
+            public void revisit(TreeNode n, int child)
+            {
+                if (child < n.numberChildren() - 1)
+                    put(',', null);
+            }
+            public void exit(TreeNode n)
+            {
+                put(n.isLeaf() ? 0 : ')', n);
+            }
+            /** Appends punctuation and a node, keeping the first error since callbacks can't throw. */
+            private void put(char c, TreeNode n)
+            {
+                if (error[0] != null)
+                    return;
+                try
+                {
+                    if (c != 0)
+                        append(c);
+                    if (n != null)
+                        appendNode(n);
+                }
+                catch (IOException e)
+                {
+                    error[0] = e;
+                }
+            }
+        });
+        if (error[0] != null)
+            throw error[0];
+    }
+
+    /**
+     * Appends the name and branch length of a node.
+     * @param n Node.
+     * @throws IOException If the buffer can't be flushed.
+     */
+    private void appendNode(TreeNode n) throws IOException
+    {
+        String name = (n.label != null) ? n.label : n.getName();
+        if (name != null && name.length() > 0)
+            appendName(name);
+        if (writeLengths)
+            appendLength(n.weight);
+    }
+
+    /**
+     * Appends a name, quoted if needed.
+     * @param name Non-empty name.
+     * @throws IOException If the buffer can't be flushed.
+     */
+    private void appendName(String name) throws IOException
+    {
+        if (!needsQuotes(name))
+        {
+            append(name);
+            return;
+        }
+        append('"');
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\')
+                append('\\');
+            else if (c == '\n' || c == '\r')
+            {
+                // a line end would end the quoted string
+                append('\\');
+                c = (c == '\n') ? 'n' : 'r';
+            }
+            append(c);
+        }
+        append('"');
+    }
+
+    /**
+     * Tests if {@link NewickLexer} would read a name as something other than one word:
+     * names starting like a number or holding whitespace, control characters or newick
+     * punctuation.
+     * @param name Non-empty name.
+     * @return True if the name has to be quoted.
+     */
+    static boolean needsQuotes(String name)
+    {
+        char first = name.charAt(0);
+        if ((first >= '0' && first <= '9') || first == '.' || first == '-')
+            return true;
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (c <= ' ' || (c >= 127 && c < 160))
+                return true;
+            switch (c)
+            {
+                case '(': case ')': case '[': case ']': case ',': case ':': case ';':
+                case '=': case '\\': case '"':
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends ':' and a branch length rounded to {@link #precision} decimals, without
+     * trailing zeros.  Lengths that round to zero and infinite or NaN lengths are left out.
+     * @param w Branch length.
+     * @throws IOException If the buffer can't be flushed.
+     */
+    private void appendLength(float w) throws IOException
+    {
+        if (w == 0 || Float.isNaN(w) || Float.isInfinite(w))
+            return;
+        long scale = powers[precision];
+        double scaled = Math.abs((double) w) * scale;
+        if (scaled >= 9e18)
+        {
+            // beyond long range, rare enough to go through BigDecimal
+            append(':');
+            append(new BigDecimal(w).setScale(precision, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString());
+            return;
+        }
+        long v = Math.round(scaled);
+        if (v == 0)
+            return;
+        append(':');
+        if (w < 0)
+            append('-');
+        appendLong(v / scale);
+        long fraction = v % scale;
+        if (fraction == 0)
+            return;
+        int digits = precision;
+        while (fraction % 10 == 0)
+        {
+            fraction /= 10;
+            digits--;
+        }
+        append('.');
+        for (long p = powers[digits - 1]; p > fraction && p > 1; p /= 10)
+            append('0');
+        appendLong(fraction);
+    }
+
+    /**
+     * Appends the decimal digits of a non-negative number.
+     * @param v Number.
+     * @throws IOException If the buffer can't be flushed.
+     */
+    private void appendLong(long v) throws IOException
+    {
+        if (count + 20 > buf.length)
+            flush();
+        int digits = 1;
+        while (digits < powers.length && v >= powers[digits])
+            digits++;
+        int end = count + digits;
+        int i = end;
+        do
+        {
+            buf[--i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        while (v != 0);
+        count = end;
+    }
+
+    /**
+     * Appends a string.
+     * @param s String.
+     * @throws IOException If the buffer can't be flushed.
+     */
+    private void append(String s) throws IOException
+    {
+        int length = s.length();
+        int done = 0;
+        while (done < length)
+        {
+            if (count == buf.length)
+                flush();
+            int n = Math.min(length - done, buf.length - count);
+            s.getChars(done, done + n, buf, count);
+            count += n;
+            done += n;
+        }
+    }
+
+    /**
+     * Appends a character.
+     * @param c Character.
+     * @throws IOException If the buffer can't be flushed.
+     */
+    private void append(char c) throws IOException
+    {
+        if (count == buf.length)
+            flush();
+        buf[count++] = c;
+    }
+
+    /**
+     * Writes the buffer to the current destination and empties it.  For channels, a high
+     * surrogate at the end of the buffer stays until its pair is appended.
+     * @throws IOException On write errors.
+     */
+    private void flush() throws IOException
+    {
+        if (writer != null)
+        {
+            writer.write(buf, 0, count);
+            count = 0;
+            return;
+        }
+        if (encoder == null)
+        {
+            encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            bytes = ByteBuffer.allocate(bufferSize * 3);
+        }
+        CharBuffer chars = CharBuffer.wrap(buf, 0, count);
+        encoder.encode(chars, bytes, false);
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+        int left = chars.remaining();
+        System.arraycopy(buf, chars.position(), buf, 0, left);
+        count = left;
+    }
+}
@@ -0,0 +1,597 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+/**
+ * Byte offset index of the trees in the tree sections of a nexus file, for random
+ * access to single trees of large posterior files.
+ *
+ * The index is built in one pass over the file bytes ({@link #build(Path)}) and records
+ * the name of each tree and the byte range of its newick string (after the equals sign,
+ * up to and including the semicolon).  {@link #getTree(int)} and {@link #getTree(String)}
+ * then map only that range and parse only that tree.  Indexes can be saved next to the
+ * nexus file ({@link #open(Path)}) so later loads skip the scan; a saved index is
+ * ignored if the size or modification time of the nexus file changed.
+ *
+ * Token rules are those of {@link NewickLexer}: <code>[...]</code> comments are skipped,
+ * names may be double quoted and keywords are case insensitive.  Tree names are those
+ * given by {@link TreeParser#nexusTrees()}, see {@link #getNames()}.
+ */
+public class NexusTreeIndex
+{
+    /** Sidecar file suffix used by {@link #open(Path)}. */
+    public static final String sidecarSuffix = ".tidx";
+    /** Sidecar file identifier. */
+    private static final int magic = 0x4E584958; // NXIX
+    /** Sidecar format version. */
+    private static final int version = 1;
+    /** Sidecar bytes before the first tree: magic, version, file size and time, tree count. */
+    private static final int headerBytes = 4 + 4 + 8 + 8 + 4;
+    /** Smallest sidecar entry: start, end and the has-name flag. */
+    private static final int minEntryBytes = 8 + 8 + 1;
+
+    /** Begin tag. */
+    private static final String beginTag = "begin";
+    /** End tag. */
+    private static final String endTag = "end";
+    /** Alternate end tag. */
+    private static final String endBlockTag = "endblock";
+    /** Tree section. */
+    private static final String treeSectionTag = "trees";
+    /** Tree ID. */
+    private static final String treeID = "tree";
+    /** Alternate tree ID. */
+    private static final String utreeID = "utree";
+
+    /** Scanner token: word. */
+    private static final int WORD = -3;
+    /** Scanner token: quoted string. */
+    private static final int QUOTED = -2;
+    /** Scanner token: end of file. */
+    private static final int EOF = -1;
+
+    /** Indexed nexus file. */
+    private Path file;
+    /** Number of trees. */
+    private int size = 0;
+    /** Tree names, null for trees without a name. */
+    private String[] names = new String[16];
+    /** File position of the first byte of each tree, after the equals sign. */
+    private long[] starts = new long[16];
+    /** File position after the terminating semicolon of each tree. */
+    private long[] ends = new long[16];
+    /** Size of the nexus file when indexed. */
+    private long fileSize;
+    /** Modification time of the nexus file when indexed. */
+    private long fileTime;
+    /** Tree number by name, built on the first {@link #indexOf(String)}. */
+    private HashMap byName = null;
+    /** Open channel for reading trees, opened on the first {@link #getTree(int)}. */
+    private FileChannel channel = null;
+
+    /**
+     * Empty index for a file.
+     * @param file Nexus file.
+     */
+    private NexusTreeIndex(Path file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Loads the saved index of a nexus file if it is still valid, otherwise builds the
+     * index and saves it next to the file (file name + {@link #sidecarSuffix}).
+     * A sidecar that can't be read or written is not an error; a damaged one is replaced.
+     * @param nexusFile Nexus file to index.
+     * @return Index of the trees of the file.
+     * @throws IOException If the nexus file can't be read.
+     */
+    public static NexusTreeIndex open(Path nexusFile) throws IOException
+    {
+        Path sidecar = nexusFile.resolveSibling(nexusFile.getFileName() + sidecarSuffix);
+        NexusTreeIndex index = null;
+        if (Files.exists(sidecar))
+        {
+            try
+            {
+                index = load(sidecar, nexusFile);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Rebuilding unreadable tree index: " + sidecar);
+            }
+        }
+        if (index == null)
+        {
+            index = build(nexusFile);
+            try
+            {
+                index.save(sidecar);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Couldn't save tree index: " + sidecar);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index with one pass over the file.
+     * @param nexusFile Nexus file to index.
+     * @return Index of the trees of the file.
+     * @throws IOException If the file can't be read.
+     */
+    public static NexusTreeIndex build(Path nexusFile) throws IOException
+    {
+        NexusTreeIndex index = new NexusTreeIndex(nexusFile);
+        index.fileSize = Files.size(nexusFile);
+        index.fileTime = Files.getLastModifiedTime(nexusFile).toMillis();
+        FileChannel ch = FileChannel.open(nexusFile, StandardOpenOption.READ);
+        try
+        {
+            index.scan(new Scanner(ch));
+        }
+        finally
+        {
+            ch.close();
+        }
+        return index;
+    }
+
+    /**
+     * Reads a saved index.
+     * @param sidecar Saved index file.
+     * @param nexusFile Nexus file the index was built from.
+     * @return The index, or null if the sidecar is not an index, has an impossible tree count
+     * or the nexus file changed since.
+     * @throws IOException If the sidecar can't be read or is truncated.
+     */
+    public static NexusTreeIndex load(Path sidecar, Path nexusFile) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)));
+        try
+        {
+            if (in.readInt() != magic || in.readInt() != version)
+                return null;
+            NexusTreeIndex index = new NexusTreeIndex(nexusFile);
+            index.fileSize = in.readLong();
+            index.fileTime = in.readLong();
+            if (index.fileSize != Files.size(nexusFile) ||
+                    index.fileTime != Files.getLastModifiedTime(nexusFile).toMillis())
+                return null;
+            int n = in.readInt();
+            if (n < 0 || n > (Files.size(sidecar) - headerBytes) / minEntryBytes)
+                return null;
+            index.names = new String[n];
+            index.starts = new long[n];
+            index.ends = new long[n];
+            for (int i = 0; i < n; i++)
+            {
+                index.starts[i] = in.readLong();
+                index.ends[i] = in.readLong();
+                index.names[i] = in.readBoolean() ? in.readUTF() : null;
+            }
+            index.size = n;
+            return index;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves this index.  The index is written to a temporary file next to the sidecar
+     * and moved over it, so an interrupted save doesn't leave a partial sidecar.
+     * @param sidecar File to write.
+     * @throws IOException If the file can't be written.
+     */
+    public void save(Path sidecar) throws IOException
+    {
+        Path dir = sidecar.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, sidecar.getFileName().toString(), ".tmp");
+        try
+        {
+            write(temp);
+            try
+            {
+                Files.move(temp, sidecar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes this index to a file.
+     * @param target File to write.
+     * @throws IOException If the file can't be written.
+     */
+    private void write(Path target) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target)));
+        try
+        {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeLong(fileSize);
+            out.writeLong(fileTime);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++)
+            {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                out.writeBoolean(names[i] != null);
+                if (names[i] != null)
+                    out.writeUTF(names[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Number of trees in the file.
+     * @return Tree count.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Name of a tree.
+     * @param i Tree number, from 0.
+     * @return Name of the tree, or null if it has none.
+     */
+    public String getName(int i)
+    {
+        return names[i];
+    }
+
+    /**
+     * Names of all trees, in file order, with one entry per tree.  Names follow the rule
+     * {@link TreeParser#nexusTrees()} uses to name trees: the word, double quoted string or
+     * number after the tree keyword as written, null if there is none.
+     * {@link TreeParser#nexusFileTreeNames(String)} differs: it leaves out trees with
+     * quoted or numeric names.
+     * @return List of tree names.
+     */
+    public ArrayList getNames()
+    {
+        ArrayList list = new ArrayList(size);
+        for (int i = 0; i < size; i++)
+            list.add(names[i]);
+        return list;
+    }
+
+    /**
+     * File position of the newick string of a tree.
+     * @param i Tree number, from 0.
+     * @return Position of the first byte after the equals sign.
+     */
+    public long getOffset(int i)
+    {
+        return starts[i];
+    }
+
+    /**
+     * Number of the first tree with the given name.
+     * @param name Tree name.
+     * @return Tree number, or -1 if no tree has this name.
+     */
+    public int indexOf(String name)
+    {
+        if (byName == null)
+        {
+            HashMap map = new HashMap(size * 2);
+            for (int i = size - 1; i >= 0; i--)
+                if (names[i] != null)
+                    map.put(names[i], Integer.valueOf(i));
+            byName = map;
+        }
+        Integer i = (Integer) byName.get(name);
+        return (i == null) ? -1 : i.intValue();
+    }
+
+    /**
+     * Parses one tree, reading only its bytes.
+     * @param i Tree number, from 0.
+     * @return The parsed tree, named by its nexus name.
+     * @throws IOException If the file can't be read.
+     */
+    public Tree getTree(int i) throws IOException
+    {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("No tree " + i + " in " + file);
+        if (channel == null)
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        MappedFileReader r = new MappedFileReader(channel, StandardCharsets.UTF_8,
+                MappedFileReader.defaultWindowSize, false, starts[i], ends[i]);
+        return new TreeParser(r, true).tokenize(ends[i] - starts[i], names[i], null);
+    }
+
+    /**
+     * Parses the first tree with the given name.
+     * @param name Tree name.
+     * @return The parsed tree, or null if no tree has this name.
+     * @throws IOException If the file can't be read.
+     */
+    public Tree getTree(String name) throws IOException
+    {
+        int i = indexOf(name);
+        return (i < 0) ? null : getTree(i);
+    }
+
+    /**
+     * Closes the file opened by {@link #getTree(int)}.
+     * @throws IOException If the file can't be closed.
+     */
+    public void close() throws IOException
+    {
+        if (channel != null)
+            channel.close();
+        channel = null;
+    }
+
+    /**
+     * Records a tree.
+     * @param name Tree name, may be null.
+     * @param start Position after the equals sign.
+     * @param end Position after the semicolon.
+     */
+    private void add(String name, long start, long end)
+    {
+        if (size == names.length)
+        {
+            int n = size * 2;
+            String[] s = new String[n];
+            System.arraycopy(names, 0, s, 0, size);
+            names = s;
+            long[] a = new long[n];
+            System.arraycopy(starts, 0, a, 0, size);
+            starts = a;
+            a = new long[n];
+            System.arraycopy(ends, 0, a, 0, size);
+            ends = a;
+        }
+        names[size] = name;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Indexes all trees of all tree sections.
+     * @param sc Scanner at the start of the file.
+     * @throws IOException On read errors.
+     */
+    private void scan(Scanner sc) throws IOException
+    {
+        boolean inTreeSection = false;
+        int token;
+        while ((token = sc.next()) != EOF)
+        {
+            if (!inTreeSection)
+            {
+                if (token == WORD && sc.wordIs(beginTag) && sc.next() == WORD && sc.wordIs(treeSectionTag))
+                    inTreeSection = true;
+                continue;
+            }
+            if (token == WORD)
+            {
+                if (sc.wordIs(endTag) || sc.wordIs(endBlockTag))
+                {
+                    inTreeSection = false;
+                    continue;
+                }
+                if (sc.wordIs(treeID) || sc.wordIs(utreeID))
+                {
+                    token = sc.next();
+                    String name = (token == WORD || token == QUOTED) ? sc.text() : null;
+                    while (token != EOF && token != '=' && token != ';')
+                        token = sc.next();
+                    if (token == '=')
+                    {
+                        long start = sc.position;
+                        while (token != EOF && token != ';')
+                            token = sc.next();
+                        add(name, start, sc.position);
+                    }
+                    continue;
+                }
+            }
+            // some other statement in the tree section
+            while (token != EOF && token != ';')
+                token = sc.next();
+        }
+    }
+
+    /**
+     * Byte level nexus tokenizer for indexing.  Reads the file through one reused buffer and
+     * keeps the file position of the next unread byte.
+     */
+    private static class Scanner
+    {
+        /** File being read. */
+        private FileChannel channel;
+        /** Read buffer. */
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        /** Bytes of the last word or quoted string. */
+        private byte[] word = new byte[64];
+        /** Length of {@link #word}. */
+        private int wordLength;
+        /** File position of the next unread byte. */
+        long position = 0;
+
+        /**
+         * Scanner at the start of a file.
+         * @param channel File to read.
+         */
+        Scanner(FileChannel channel)
+        {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        /**
+         * Reads the next byte.
+         * @return Byte value 0-255, or -1 at the end of the file.
+         * @throws IOException On read errors.
+         */
+        private int read() throws IOException
+        {
+            if (!buffer.hasRemaining())
+            {
+                buffer.clear();
+                int n;
+                do
+                    n = channel.read(buffer);
+                while (n == 0);
+                buffer.flip();
+                if (n < 0)
+                    return -1;
+            }
+            position++;
+            return buffer.get() & 0xff;
+        }
+
+        /** Unreads the last byte read. */
+        private void unread()
+        {
+            buffer.position(buffer.position() - 1);
+            position--;
+        }
+
+        /**
+         * Tests for characters that end a word.
+         * @param c Byte value.
+         * @return True for whitespace, Newick punctuation, quotes and comment brackets.
+         */
+        private static boolean isDelimiter(int c)
+        {
+            return c <= ' ' || c == '(' || c == ')' || c == ',' || c == ':' || c == ';' || c == '=' ||
+                c == '\\' || c == '"' || c == '[' || c == ']';
+        }
+
+        /**
+         * Appends a byte to {@link #word}.
+         * @param c Byte to append.
+         */
+        private void append(int c)
+        {
+            if (wordLength == word.length)
+            {
+                byte[] bigger = new byte[word.length * 2];
+                System.arraycopy(word, 0, bigger, 0, wordLength);
+                word = bigger;
+            }
+            word[wordLength++] = (byte) c;
+        }
+
+        /**
+         * Reads the next token, skipping whitespace and comments.
+         * @return {@link #WORD}, {@link #QUOTED}, {@link #EOF} or a punctuation character.
+         * @throws IOException On read errors.
+         */
+        int next() throws IOException
+        {
+            int c;
+            while (true)
+            {
+                c = read();
+                if (c < 0)
+                    return EOF;
+                if (c == '[')
+                {
+                    int depth = 1;
+                    while (depth > 0 && (c = read()) >= 0)
+                        if (c == '[')
+                            depth++;
+                        else if (c == ']')
+                            depth--;
+                }
+                else if (c > ' ')
+                    break;
+            }
+            wordLength = 0;
+            if (c == '"')
+            {
+                while ((c = read()) >= 0 && c != '"' && c != '\n' && c != '\r')
+                {
+                    if (c == '\\' && (c = read()) < 0)
+                        break;
+                    append(c);
+                }
+                if (c == '\n' || c == '\r')
+                    unread();
+                return QUOTED;
+            }
+            if (isDelimiter(c))
+                return c;
+            do
+            {
+                append(c);
+                c = read();
+            }
+            while (c >= 0 && !isDelimiter(c));
+            if (c >= 0)
+                unread();
+            return WORD;
+        }
+
+        /**
+         * Case insensitive comparison of the last word with an ASCII keyword.
+         * @param keyword Lower case keyword.
+         * @return True if the word is the keyword.
+         */
+        boolean wordIs(String keyword)
+        {
+            if (wordLength != keyword.length())
+                return false;
+            for (int i = 0; i < wordLength; i++)
+            {
+                int c = word[i];
+                if (c >= 'A' && c <= 'Z')
+                    c += 'a' - 'A';
+                if (c != keyword.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Text of the last word or quoted string.
+         * @return UTF-8 decoded text.
+         */
+        String text()
+        {
+            return new String(word, 0, wordLength, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+/**
+ * Parses files of many semicolon terminated Newick trees (bootstrap and posterior
+ * samples) on several threads.
+ *
+ * The input is first split at tree terminators by a single scan that skips quoted
+ * labels and <code>[...]</code> comments, then the trees are parsed on a
+ * {@link ForkJoinPool} by workers that each reuse one {@link TreeParser}, taking the
+ * next unparsed tree until none are left.  Trees are returned in file order.
+ * Nexus files are not split; use {@link TreeParser#nexusTokenize(java.util.Vector, ProgressListener)}.
+ */
+public class ParallelTreeParser
+{
+    /** Tree terminator. */
+    private static final char lineTerminator = ';';
+    /** Quote character, as read by {@link NewickLexer}. */
+    private static final char quote = '"';
+    /** Comment open. */
+    private static final char commentOpen = '[';
+    /** Comment close. */
+    private static final char commentClose = ']';
+
+    /** Not instantiated, all methods are static. */
+    private ParallelTreeParser()
+    {
+    }
+
+    /**
+     * Parses all trees in a UTF-8 file with one thread per available processor.
+     * @param path File of semicolon terminated Newick trees.
+     * @return Trees in file order, each named by the file name.
+     * @throws IOException If the file can't be read.
+     */
+    public static List parse(Path path) throws IOException
+    {
+        return parse(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses all trees in a UTF-8 file.  The file is memory mapped and each tree is decoded
+     * and parsed straight from its own byte range, so the file is never copied as a whole.
+     * Each thread keeps one parser and one {@link MappedFileReader}, moved from tree to tree,
+     * so small trees cost neither a new lexer buffer nor a new mapping.
+     * @param path File of semicolon terminated Newick trees.
+     * @param threads Number of parsing threads.
+     * @return Trees in file order, each named by the file name.
+     * @throws IOException If the file can't be read.
+     */
+    public static List parse(Path path, int threads) throws IOException
+    {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            final long[] bounds = splitTrees(channel);
+            final String streamName = path.getFileName().toString();
+            final Tree[] trees = new Tree[bounds.length / 2];
+            final AtomicInteger next = new AtomicInteger();
+            List tasks = new ArrayList();
+            for (int w = 0; w < workers(threads, trees.length); w++)
+            {
+                tasks.add(new Callable() {
+                    public Object call() throws IOException
+                    {
+                        MappedFileReader r = new MappedFileReader(channel, StandardCharsets.UTF_8,
+                                MappedFileReader.defaultWindowSize, false, 0, 0);
+                        TreeParser tp = new TreeParser(r, true);
+                        int i;
+                        while ((i = next.getAndIncrement()) < trees.length)
+                        {
+                            long start = bounds[2 * i], end = bounds[2 * i + 1];
+                            r.reset(start, end);
+                            tp.reset(r);
+                            trees[i] = tp.tokenize(end - start, streamName, null);
+                        }
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks, threads);
+            return new ArrayList(Arrays.asList(trees));
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Parses all trees from a reader.  The whole input is read into memory first.
+     * @param r Source of semicolon terminated Newick trees.
+     * @param streamName Name given to each tree.
+     * @param threads Number of parsing threads.
+     * @return Trees in input order.
+     * @throws IOException If the reader fails.
+     */
+    public static List parse(Reader r, final String streamName, int threads) throws IOException
+    {
+        char[] text = new char[1 << 16];
+        int length = 0;
+        int n;
+        while ((n = r.read(text, length, text.length - length)) >= 0)
+        {
+            length += n;
+            if (length == text.length)
+            {
+                char[] bigger = new char[text.length * 2];
+                System.arraycopy(text, 0, bigger, 0, length);
+                text = bigger;
+            }
+        }
+        final char[] chars = text;
+        final int[] bounds = splitTrees(chars, length);
+        final Tree[] trees = new Tree[bounds.length / 2];
+        final AtomicInteger next = new AtomicInteger();
+        List tasks = new ArrayList();
+        for (int w = 0; w < workers(threads, trees.length); w++)
+        {
+            tasks.add(new Callable() {
+                public Object call()
+                {
+                    TreeParser tp = null;
+                    int i;
+                    while ((i = next.getAndIncrement()) < trees.length)
+                    {
+                        int start = bounds[2 * i], end = bounds[2 * i + 1];
+                        Reader chunk = new CharArrayReader(chars, start, end - start);
+                        if (tp == null)
+                            tp = new TreeParser(chunk, true);
+                        else
+                            tp.reset(chunk);
+                        trees[i] = tp.tokenize(end - start, streamName, null);
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks, threads);
+        return new ArrayList(Arrays.asList(trees));
+    }
+
+    /**
+     * Number of parsing workers, each taking the next unparsed tree until none are left.
+     * @param threads Number of threads asked for.
+     * @param trees Number of trees.
+     * @return Between 1 and threads, no more than there are trees.
+     */
+    private static int workers(int threads, int trees)
+    {
+        return Math.max(1, Math.min(threads, trees));
+    }
+
+    /**
+     * Runs the parsing workers and waits for all of them.  A single worker runs on
+     * the calling thread.
+     * @param tasks Workers, each a {@link Callable}.
+     * @param threads Number of threads to use.
+     * @throws IOException If a worker failed reading its input.
+     */
+    private static void runAll(List tasks, int threads) throws IOException
+    {
+        if (threads <= 1 || tasks.size() <= 1)
+        {
+            try
+            {
+                for (int i = 0; i < tasks.size(); i++)
+                    ((Callable) tasks.get(i)).call();
+            }
+            catch (IOException e)
+            {
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            List futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++)
+                ((Future) futures.get(i)).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing trees");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Finds the byte range of each tree in a file.  Only ASCII characters delimit trees, so
+     * the bytes of UTF-8 files can be scanned without decoding.  Text after the last
+     * semicolon is a tree only if it has characters outside comments.
+     * @param channel File to scan.
+     * @return Start and end (exclusive) file positions of each tree, in pairs.
+     * @throws IOException If the file can't be mapped.
+     */
+    static long[] splitTrees(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        long[] bounds = new long[16];
+        int count = 0;
+        int commentDepth = 0;
+        boolean inQuote = false;
+        boolean escaped = false;
+        boolean content = false;
+        long start = 0;
+        for (long windowStart = 0; windowStart < size; windowStart += MappedFileReader.defaultWindowSize)
+        {
+            long windowSize = Math.min(MappedFileReader.defaultWindowSize, size - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++)
+            {
+                int c = window.get(i);
+                if (inQuote)
+                {
+                    if (escaped)
+                        escaped = false;
+                    else if (c == '\\')
+                        escaped = true;
+                    else if (c == quote || c == '\n' || c == '\r')
+                        inQuote = false;
+                }
+                else if (commentDepth > 0)
+                {
+                    if (c == commentOpen)
+                        commentDepth++;
+                    else if (c == commentClose)
+                        commentDepth--;
+                    continue; // comments alone don't make a tree
+                }
+                else if (c == commentOpen)
+                {
+                    commentDepth = 1;
+                    continue;
+                }
+                else if (c == lineTerminator)
+                {
+                    if (count == bounds.length)
+                        bounds = grow(bounds);
+                    bounds[count++] = start;
+                    bounds[count++] = windowStart + i + 1;
+                    start = windowStart + i + 1;
+                    content = false;
+                    continue;
+                }
+                else if (c == quote)
+                    inQuote = true;
+                if (c < 0 || c > ' ')
+                    content = true;
+            }
+        }
+        if (content)
+        {
+            // last tree without a terminator
+            if (count == bounds.length)
+                bounds = grow(bounds);
+            bounds[count++] = start;
+            bounds[count++] = size;
+        }
+        long[] result = new long[count];
+        System.arraycopy(bounds, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Finds the range of each tree in a char array, with the same rules as {@link #splitTrees(FileChannel)}.
+     * @param text Characters to scan.
+     * @param length Number of characters used in text.
+     * @return Start and end (exclusive) indices of each tree, in pairs.
+     */
+    static int[] splitTrees(char[] text, int length)
+    {
+        int[] bounds = new int[16];
+        int count = 0;
+        int commentDepth = 0;
+        boolean inQuote = false;
+        boolean escaped = false;
+        boolean content = false;
+        int start = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = text[i];
+            if (inQuote)
+            {
+                if (escaped)
+                    escaped = false;
+                else if (c == '\\')
+                    escaped = true;
+                else if (c == quote || c == '\n' || c == '\r')
+                    inQuote = false;
+            }
+            else if (commentDepth > 0)
+            {
+                if (c == commentOpen)
+                    commentDepth++;
+                else if (c == commentClose)
+                    commentDepth--;
+                continue; // comments alone don't make a tree
+            }
+            else if (c == commentOpen)
+            {
+                commentDepth = 1;
+                continue;
+            }
+            else if (c == lineTerminator)
+            {
+                if (count == bounds.length)
+                {
+                    int[] bigger = new int[bounds.length * 2];
+                    System.arraycopy(bounds, 0, bigger, 0, count);
+                    bounds = bigger;
+                }
+                bounds[count++] = start;
+                bounds[count++] = i + 1;
+                start = i + 1;
+                content = false;
+                continue;
+            }
+            else if (c == quote)
+                inQuote = true;
+            if (c > ' ')
+                content = true;
+        }
+        int[] result = new int[content ? count + 2 : count];
+        System.arraycopy(bounds, 0, result, 0, count);
+        if (content)
+        {
+            result[count] = start;
+            result[count + 1] = length;
+        }
+        return result;
+    }
+
+    /**
+     * Doubles a bounds array.
+     * @param bounds Array to copy.
+     * @return Copy with twice the length.
+     */
+    private static long[] grow(long[] bounds)
+    {
+        long[] bigger = new long[bounds.length * 2];
+        System.arraycopy(bounds, 0, bigger, 0, bounds.length);
+        return bigger;
+    }
+}
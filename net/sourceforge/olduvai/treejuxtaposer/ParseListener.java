@@ -0,0 +1,26 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+/**
+ * Receives the cost of each tree {@link TreeParser} builds: how long reading, tokenizing
+ * and post processing took, and the size and shape of the tree.  Calls come from the
+ * parsing thread, one pair per tree.  Measuring is only switched on while a listener
+ * is set, so parsers without one pay nothing for it.
+ *
+ * @see TreeParser#setParseListener(ParseListener)
+ * @see TreeParser#setDefaultParseListener(ParseListener)
+ * @see net.sourceforge.olduvai.treejuxtaposer.jfr.JfrParseListener
+ */
+public interface ParseListener
+{
+    /**
+     * Called before the first token of a tree is read.
+     * @param streamName Name of the tree or file being loaded.
+     */
+    void parseStarted(String streamName);
+
+    /**
+     * Called when a tree has been parsed and post processed.
+     * @param stats Measurements of the tree just parsed.
+     */
+    void treeParsed(ParseStats stats);
+}
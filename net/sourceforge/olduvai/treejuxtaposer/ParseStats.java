@@ -0,0 +1,167 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+/**
+ * Measurements of one tree parsed by {@link TreeParser}, passed to
+ * {@link ParseListener#treeParsed(ParseStats)}.  Times are in nanoseconds; reading,
+ * tokenizing and post processing are measured separately and add up to
+ * {@link #getTotalNanos()}.
+ */
+public class ParseStats
+{
+    /** Name of the tree or file. */
+    private final String streamName;
+    /** Characters scanned, including whitespace and comments. */
+    private final long characters;
+    /** Time spent reading from the reader. */
+    private final long readNanos;
+    /** Time spent tokenizing and building nodes, reads excluded. */
+    private final long tokenizeNanos;
+    /** Time spent in {@link net.sourceforge.olduvai.treejuxtaposer.drawer.Tree#postProcess(int)}. */
+    private final long postProcessNanos;
+    /** Nodes in the tree, the root included. */
+    private final int nodes;
+    /** Leaves in the tree. */
+    private final int leaves;
+    /** Deepest nesting of the tree, 1 for a single node. */
+    private final int depth;
+    /** Leaves renamed because of duplicate names, -1 if not yet known. */
+    private final int duplicates;
+
+    /**
+     * Measurements of a parsed tree.
+     * @param streamName Name of the tree or file.
+     * @param characters Characters scanned.
+     * @param readNanos Time spent reading.
+     * @param tokenizeNanos Time spent tokenizing, reads excluded.
+     * @param postProcessNanos Time spent post processing.
+     * @param nodes Number of nodes.
+     * @param leaves Number of leaves.
+     * @param depth Deepest nesting.
+     * @param duplicates Renamed leaves, -1 if duplicates haven't been numbered.
+     */
+    ParseStats(String streamName, long characters, long readNanos, long tokenizeNanos,
+            long postProcessNanos, int nodes, int leaves, int depth, int duplicates)
+    {
+        this.streamName = streamName;
+        this.characters = characters;
+        this.readNanos = readNanos;
+        this.tokenizeNanos = tokenizeNanos;
+        this.postProcessNanos = postProcessNanos;
+        this.nodes = nodes;
+        this.leaves = leaves;
+        this.depth = depth;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * @return Name of the tree or file.
+     */
+    public String getStreamName()
+    {
+        return streamName;
+    }
+
+    /**
+     * @return Characters scanned for the tree, including whitespace and comments.  With the
+     * legacy tokenizer ({@link TreeParser#setUseNewickLexer(boolean)}) only token characters
+     * are counted, see {@link NewickLexer#getPosition()}.
+     */
+    public long getCharacters()
+    {
+        return characters;
+    }
+
+    /**
+     * @return Nanoseconds spent reading from the reader.
+     */
+    public long getReadNanos()
+    {
+        return readNanos;
+    }
+
+    /**
+     * @return Nanoseconds spent tokenizing and building nodes, reads excluded.
+     */
+    public long getTokenizeNanos()
+    {
+        return tokenizeNanos;
+    }
+
+    /**
+     * @return Nanoseconds spent post processing the tree.
+     */
+    public long getPostProcessNanos()
+    {
+        return postProcessNanos;
+    }
+
+    /**
+     * @return Nanoseconds from the first read to the end of post processing.
+     */
+    public long getTotalNanos()
+    {
+        return readNanos + tokenizeNanos + postProcessNanos;
+    }
+
+    /**
+     * @return Number of nodes, the root included.
+     */
+    public int getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * @return Number of leaves.
+     */
+    public int getLeaves()
+    {
+        return leaves;
+    }
+
+    /**
+     * @return Deepest nesting of nodes, 1 for a tree that is a single node.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return Number of leaves renamed because another leaf had the same name, or -1 if
+     * numbering duplicates was deferred by {@link TreeParser#setPostProcessStages(int)}.
+     */
+    public int getDuplicates()
+    {
+        return duplicates;
+    }
+
+    /**
+     * @return Characters parsed per second of total time.
+     */
+    public double getCharactersPerSecond()
+    {
+        long total = getTotalNanos();
+        return total == 0 ? 0 : characters * 1e9 / total;
+    }
+
+    /**
+     * @return Nodes built per second of total time.
+     */
+    public double getNodesPerSecond()
+    {
+        long total = getTotalNanos();
+        return total == 0 ? 0 : nodes * 1e9 / total;
+    }
+
+    /**
+     * @return One line summary, for logs.
+     */
+    public String toString()
+    {
+        return streamName + ": " + characters + " chars, " + nodes + " nodes, "
+            + leaves + " leaves, depth " + depth + ", " + duplicates + " duplicates; read "
+            + readNanos / 1000000 + "ms, tokenize " + tokenizeNanos / 1000000
+            + "ms, post process " + postProcessNanos / 1000000 + "ms";
+    }
+}
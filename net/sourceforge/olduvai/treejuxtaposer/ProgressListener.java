@@ -0,0 +1,20 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+/**
+ * Receives parsing progress from {@link TreeParser}, without tying the parser to a
+ * user interface.  Calls come from the parsing thread; implementations that update
+ * widgets hand the values over to their own thread.
+ *
+ * @see TreeParser#tokenize(long, String, ProgressListener)
+ * @see TreeParser#nexusTokenize(java.util.Vector, ProgressListener)
+ * @see net.sourceforge.olduvai.treejuxtaposer.swing.ProgressBarListener
+ */
+public interface ProgressListener
+{
+    /**
+     * Reports how far parsing has got.
+     * @param done Characters or trees read so far.
+     * @param total Characters or trees expected in all, or -1 if that isn't known.
+     */
+    void progress(long done, long total);
+}
@@ -0,0 +1,94 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
+
+/**
+ * Streaming access to the trees of a multi-tree newick or nexus input.
+ * The next tree is parsed only when it is asked for and the iterator keeps no
+ * reference to trees it has returned, so memory use does not grow with the
+ * number of trees in the file.
+ *
+ * @see TreeParser#trees(String)
+ * @see TreeParser#nexusTrees()
+ */
+public class TreeIterator implements Iterator
+{
+    /** Parser positioned before the next tree. */
+    private TreeParser parser;
+    /** True for nexus input. */
+    private boolean nexus;
+    /** Name given to newick trees. */
+    private String streamName;
+    /** Tree parsed by {@link #hasNext()} but not returned yet. */
+    private Tree next = null;
+    /** True once the end of the input was reached. */
+    private boolean done = false;
+
+    /**
+     * Iterator over the remaining trees of a parser.
+     * @param parser Parser to read trees from.
+     * @param nexus True to read nexus tree sections, false for newick trees.
+     * @param streamName Name for newick trees.
+     */
+    TreeIterator(TreeParser parser, boolean nexus, String streamName)
+    {
+        this.parser = parser;
+        this.nexus = nexus;
+        this.streamName = streamName;
+    }
+
+    /**
+     * Parses the next tree if it hasn't been parsed yet.
+     * @return True if there is another tree.
+     * @throws UncheckedIOException On read errors.
+     */
+    public boolean hasNext()
+    {
+        if (next == null && !done)
+        {
+            try
+            {
+                next = parser.nextTree(nexus, streamName);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            done = (next == null);
+        }
+        return next != null;
+    }
+
+    /**
+     * Returns the next tree, parsing it now unless {@link #hasNext()} already did.
+     * @return Next tree of the input.
+     * @throws NoSuchElementException At the end of the input.
+     */
+    public Tree next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tree t = next;
+        next = null;
+        return t;
+    }
+
+    /**
+     * Sequential stream over the remaining trees, parsed as the stream is consumed.
+     * @return Ordered stream of trees.
+     */
+    public Stream stream()
+    {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
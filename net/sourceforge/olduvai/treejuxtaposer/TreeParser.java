@@ -1,27 +1,22 @@
 package net.sourceforge.olduvai.treejuxtaposer;
 
-import java.awt.Frame;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.awt.event.WindowEvent;
-import java.awt.event.WindowListener;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StreamTokenizer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.EmptyStackException;
+import java.util.Iterator;
 import java.util.Stack;
 import java.util.Vector;
-import javax.swing.JButton;
-import javax.swing.JFrame;
-import javax.swing.JList;
-import javax.swing.JProgressBar;
 
+import net.sourceforge.olduvai.treejuxtaposer.drawer.CompactTree;
 import net.sourceforge.olduvai.treejuxtaposer.drawer.Tree;
 import net.sourceforge.olduvai.treejuxtaposer.drawer.TreeNode;
 
@@ -63,11 +58,39 @@ public class TreeParser
 	 * True: show debug output.  False: suppress printing.
 	 */
 	private static boolean debugOutput = false;
-    private StreamTokenizer tokenizer;
+	/**
+	 * True: new parsers use the hand-written {@link NewickLexer}.  False: new parsers use the
+	 * {@link StreamTokenizer} set up in {@link #TreeParser(BufferedReader)}.
+	 */
+	private static boolean useNewickLexer = true;
+    private NewickLexer tokenizer;
     /**
      * Root node of the tree being parsed.  Must be initialized outside the tokenizer.
      */
     private TreeNode rootNode;
+    /**
+     * Keys of the {@link CompactTree} nodes that haven't been named yet, the stack used by
+     * {@link #tokenizeCompact(String)}.
+     */
+    private int[] compactStack;
+    /** Index of the top of {@link #compactStack}, -1 when empty. */
+    private int compactTop;
+    /** True while reading a nexus tree section. */
+    private boolean inTreeSection = false;
+    /** Post processing stages run on each parsed tree, the others are deferred. */
+    private int postProcessStages = Tree.ALL_STAGES;
+    /** Node arena: nodes of released trees, used before new nodes are made. */
+    private TreeNode[] freeNodes = new TreeNode[0];
+    /** Number of nodes in {@link #freeNodes}. */
+    private int freeNodeCount = 0;
+    /** Released trees, emptied and waiting for reuse. */
+    private ArrayList freeTrees = new ArrayList();
+    /** Nodes that haven't been named yet, kept between trees. */
+    private Stack nodeStack = new Stack();
+    /** Leaf count the word cache of the lexer was sized for. */
+    private int wordCacheLeaves = 0;
+    /** Name of the last nexus tree found by {@link #findNexusTree()}. */
+    private String nexusTreeName;
     
     /**
      * Guess the type of treeFile based on the presence of nexus identifiers.
@@ -101,6 +124,7 @@ public class TreeParser
      * Parses names of trees in nexus file.
      * @param fileName Name of nexus file.
      * @return List of all tree names found in nexus file
+     * @see NexusTreeIndex#getNames() for names with offsets, to load single trees without a rescan
      */
     public static ArrayList nexusFileTreeNames(String fileName)
     {
@@ -176,101 +200,243 @@ public class TreeParser
         return returnList;
     }
     
+    /** Listener given to new parsers, see {@link #setDefaultParseListener(ParseListener)}. */
+    private static volatile ParseListener defaultParseListener = null;
+
+    /** Receives the measurements of each parsed tree, null to not measure. */
+    private ParseListener parseListener = defaultParseListener;
+
     /**
-     * For listing the selected results from the list of Nexus tree names.
+     * Sets the listener that receives the measurements of each tree this parser builds.
+     * @param listener Listener, or null to stop measuring.
      */
-    private JList selection;
+    public void setParseListener(ParseListener listener)
+    {
+        parseListener = listener;
+    }
+
     /**
-     * For returning results inside action listeners.
+     * Sets the listener of parsers created from now on, so parsers made inside other
+     * classes (nexus loading, {@link ParallelTreeParser}) can be instrumented too.
+     * @param listener Listener, or null for none.
      */
-    private Vector returnVector;
+    public static void setDefaultParseListener(ParseListener listener)
+    {
+        defaultParseListener = listener;
+    }
+
     /**
-     * Frame for selecting Nexus trees from the full set.
+     * Chooses the trees {@link #chooseNames(ArrayList)} loads, null to load all of them.
      */
-    private JFrame selectionFrame = null;
+    private TreeSelectionStrategy selectionStrategy = null;
+
     /**
-     * Layout and listeners for the nexus chooser.
-     * Allows for the population of {@link #returnVector}.
-     *
+     * Sets how {@link #chooseNames(ArrayList)} selects nexus trees.  The parser itself
+     * has no user interface; pass a
+     * {@link net.sourceforge.olduvai.treejuxtaposer.swing.SwingTreeChooser} for the
+     * selection dialog.
+     * @param strategy Selection strategy, or null to select all trees.
      */
-    private void initNexusChooser()
-    {
-        selection = new JList();
-        selectionFrame = new JFrame("Nexus tree selection");
-        selection.setDragEnabled(true);
-        selectionFrame.setLayout(new GridBagLayout());
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.fill = GridBagConstraints.BOTH;
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        gbc.gridwidth = 2;
-        selectionFrame.add(selection, gbc);
-        gbc.fill = GridBagConstraints.NONE;
-        gbc.gridy++;
-        gbc.gridwidth = 1;
-        JButton ok = new JButton("Select");
-        JButton cancel = new JButton("Cancel");
-        ok.addActionListener( new ActionListener() { 
-            public void actionPerformed(ActionEvent e)
-            {
-                returnVector = new Vector();
-                int[] selectedList = selection.getSelectedIndices();
-                for (int i = 0; i < selectedList.length; i++)
-                    returnVector.add(new Integer(selectedList[i]));
-                selectionFrame.setVisible(false);
-            }
-        });
-        cancel.addActionListener( new ActionListener() { 
-            public void actionPerformed(ActionEvent e)
-            {
-                returnVector = new Vector(); // empty vector, should load no trees
-                selectionFrame.setVisible(false);
-            }
-        });
-        selectionFrame.add(ok, gbc);
-        gbc.gridx++;
-        selectionFrame.add(cancel, gbc);
-        selectionFrame.setSize(250, 300);
-        selectionFrame.pack();
-        selection.list();
-        
+    public void setTreeSelectionStrategy(TreeSelectionStrategy strategy)
+    {
+        selectionStrategy = strategy;
     }
-    
+
     /**
-     * Pops a dialog to select the trees to load from a nexus file.
-     * Also, wrapper for {@link #initNexusChooser()} dialog.
+     * Selects the trees to load from a nexus file with the strategy set by
+     * {@link #setTreeSelectionStrategy(TreeSelectionStrategy)}.  Without one, all trees are selected.
      * @param treeNames arraylist of tree names.
      * @return vector List of integers that correspond to the trees to load;
      * not using names since trees might have the same name?
      */
     public Vector chooseNames(ArrayList treeNames)
     {
-        if (selectionFrame == null)
-            initNexusChooser();
-        returnVector = null;        
-        selection.setListData(treeNames.toArray());
-        selection.setVisible(true);
-        System.out.println("selection list should have: " + treeNames.toString());
-        
-        selectionFrame.pack();
-        selectionFrame.validate();
-        selectionFrame.setVisible(true);
-        while (selectionFrame.isVisible()) {try {Thread.sleep(100);} catch (InterruptedException e) {} }
-        
-        return returnVector;
+        if (selectionStrategy != null)
+            return selectionStrategy.chooseTrees(treeNames);
+        Vector all = new Vector(treeNames.size());
+        for (int i = 0; i < treeNames.size(); i++)
+            all.add(Integer.valueOf(i));
+        return all;
     }
     
     /**
-     * Initializes parsing of a tree by creating a tokenizer and setting default
-     * properties (such as spacing, quoting characters).  
-     * {@link #tokenize(long, String, JProgressBar)} is required to start the parsing.
+     * Initializes parsing of a tree by creating a tokenizer, either {@link NewickLexer}
+     * or the {@link StreamTokenizer} as chosen by {@link #setUseNewickLexer(boolean)}.
+     * {@link #tokenize(long, String, ProgressListener)} is required to start the parsing.
      * @param b Buffered reader that could start in the middle of a nexus file or
      * the start of a newick file (basically the beginning of a newick tree, is run
      * for each tree in a nexus file)
      */
     public TreeParser(BufferedReader b)
     {
-        tokenizer = new StreamTokenizer(b);
+        this(b, useNewickLexer);
+    }
+    
+    /**
+     * Initializes parsing of a tree with a choice of tokenizer.
+     * {@link #tokenize(long, String, ProgressListener)} is required to start the parsing.
+     * @param r Reader that could start in the middle of a nexus file or the start of a newick file.
+     * @param newickLexer True to use the hand-written {@link NewickLexer}, false to use the
+     * {@link StreamTokenizer} based tokenizer.  Both produce the same trees.
+     */
+    public TreeParser(Reader r, boolean newickLexer)
+    {
+        if (newickLexer)
+            tokenizer = new NewickLexer(r);
+        else
+            tokenizer = new NewickLexer(legacyTokenizer(r));
+    }
+    
+    /**
+     * Initializes parsing of a UTF-8 newick or nexus file through a memory mapping of the
+     * file, with the {@link NewickLexer}.  This skips the copying and decoding done by
+     * FileReader/BufferedReader; files over 2 GB are mapped in windows.
+     * Call {@link #close()} when finished to close the file.
+     * @param path File to parse.
+     * @throws IOException If the file can't be opened.
+     */
+    public TreeParser(Path path) throws IOException
+    {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        boolean opened = false;
+        try
+        {
+            tokenizer = new NewickLexer(new MappedFileReader(channel, StandardCharsets.UTF_8,
+                    MappedFileReader.defaultWindowSize, true));
+            opened = true;
+        }
+        finally
+        {
+            if (!opened)
+                channel.close(); // the caller gets no parser to close
+        }
+    }
+    
+    /**
+     * Initializes parsing of a UTF-8 newick or nexus file through a memory mapping of an
+     * open channel, with the {@link NewickLexer}.  The channel is not closed by {@link #close()}.
+     * @param channel Channel of the file to parse, mapped from position 0.
+     * @throws IOException If the file size can't be read.
+     */
+    public TreeParser(FileChannel channel) throws IOException
+    {
+        tokenizer = new NewickLexer(new MappedFileReader(channel));
+    }
+    
+    /**
+     * Closes the input of this parser.  Needed for parsers that opened the file
+     * themselves ({@link #TreeParser(Path)}); other readers are closed by their owners.
+     * @throws IOException If the input can't be closed.
+     */
+    public void close() throws IOException
+    {
+        tokenizer.close();
+    }
+    
+    /**
+     * Points this parser at new input, for parsing many files with one parser.
+     * The lexer buffers, the node arena and the released trees are kept.  The
+     * previous input is not closed.
+     * @param r Reader that could start in the middle of a nexus file or the start of a newick file.
+     */
+    public void reset(Reader r)
+    {
+        tokenizer.reset(r);
+        inTreeSection = false;
+        nexusTreeName = null;
+    }
+
+    /**
+     * Recycles a tree parsed by this parser once the caller is done with it.  Its nodes
+     * go back to the node arena and the tree itself is reused by a later
+     * {@link #tokenize(long, String, ProgressListener)}, so parsing a stream of trees of
+     * about the same size allocates close to nothing per tree.  Once trees are released
+     * the lexer also reuses the strings of repeated taxon names.
+     * The tree and its nodes must not be used after this; releasing it twice does nothing.
+     * @param t Tree whose nodes are still linked in preorder, as the parser left them.
+     */
+    public void release(Tree t)
+    {
+        TreeNode root = t.getRoot();
+        if (root == null)
+            return; // already released
+        int leaves = root.numberLeaves;
+        for (TreeNode n = root; n != null; )
+        {
+            TreeNode next = n.preorderNext;
+            n.reset();
+            if (freeNodeCount == freeNodes.length)
+            {
+                TreeNode[] bigger = new TreeNode[Math.max(1024, freeNodes.length * 2)];
+                System.arraycopy(freeNodes, 0, bigger, 0, freeNodeCount);
+                freeNodes = bigger;
+            }
+            freeNodes[freeNodeCount++] = n;
+            n = next;
+        }
+        t.reset();
+        freeTrees.add(t);
+        if (leaves > wordCacheLeaves)
+        {
+            wordCacheLeaves = leaves;
+            tokenizer.setWordCache(leaves);
+        }
+    }
+
+    /**
+     * Takes a node from the node arena, or makes one if it is empty.
+     * @return Node in its initial state.
+     */
+    private TreeNode newNode()
+    {
+        if (freeNodeCount == 0)
+            return new TreeNode();
+        TreeNode n = freeNodes[--freeNodeCount];
+        freeNodes[freeNodeCount] = null;
+        return n;
+    }
+
+    /**
+     * Takes a released tree, or makes one if there is none.
+     * @return Empty tree.
+     */
+    private Tree newTree()
+    {
+        if (freeTrees.isEmpty())
+            return new Tree();
+        return (Tree) freeTrees.remove(freeTrees.size() - 1);
+    }
+
+    /**
+     * Chooses the post processing stages run on each tree as it is parsed.  Deferred stages
+     * run when a getter of the tree needs them, so jobs that only scan topology or branch
+     * lengths skip the name table and duplicate renaming.
+     * @param stages Stages for {@link Tree#postProcess(int)}, {@link Tree#ALL_STAGES} by default.
+     */
+    public void setPostProcessStages(int stages)
+    {
+        postProcessStages = stages;
+    }
+    
+    /**
+     * Chooses the tokenizer used by parsers created with {@link #TreeParser(BufferedReader)}.
+     * @param newickLexer True (default) for the hand-written {@link NewickLexer}, false for the
+     * {@link StreamTokenizer} based tokenizer.
+     */
+    public static void setUseNewickLexer(boolean newickLexer)
+    {
+        useNewickLexer = newickLexer;
+    }
+    
+    /**
+     * Creates the stream tokenizer used before {@link NewickLexer}, setting default
+     * properties (such as spacing, quoting characters).
+     * @param r Reader to tokenize.
+     * @return Configured tokenizer.
+     */
+    private static StreamTokenizer legacyTokenizer(Reader r)
+    {
+        StreamTokenizer tokenizer = new StreamTokenizer(r);
         tokenizer.eolIsSignificant(false);
         tokenizer.quoteChar('"');
 //        tokenizer.quoteChar('\''); // TODO: check quote layering, quoted quotes
@@ -295,6 +461,7 @@ public class TreeParser
         // 97-122 = [a-z]
         tokenizer.wordChars('{', '~'); // 123-126
         // 127 = del
+        return tokenizer;
     }
     
     /**
@@ -314,9 +481,10 @@ public class TreeParser
      * @param name Name of the node.
      * @param nodeStack Stack of nodes that haven't been added to the tree yet.  Nodes are popped when
      * they have names and all children are processed.
+     * @param rootNode Root of the tree being parsed, the one node without a parent.
      * @return Newly added treeNode linked into the tree. 
      */
-    private TreeNode popAndName(String name, Stack nodeStack)
+    static TreeNode popAndName(String name, Stack nodeStack, TreeNode rootNode)
     {
 	    TreeNode topNode = (TreeNode)nodeStack.pop();
 	    if (name == null)
@@ -329,16 +497,13 @@ public class TreeParser
 	    	topNode.label = name;
 	    	topNode.setName(name);
 	    }
-	    try
+	    if (!nodeStack.isEmpty())
 	    {
 	    	TreeNode parent = (TreeNode) nodeStack.peek();
 	    	parent.addChild(topNode);
 	    }
-	    catch (EmptyStackException e)
-	    {
-	        if (topNode != rootNode)
-	            System.out.println("Parser error on node " + topNode);
-	    }
+	    else if (topNode != rootNode)
+	        System.out.println("Parser error on node " + topNode);
 	    topNode.setExtremeLeaves(); // sets leftmost and rightmost leaf, non-recursive
 	    topNode.setNumberLeaves(); // sets number of leaves, non-recursive
 	    topNode.linkNodesInPreorder();
@@ -352,26 +517,41 @@ public class TreeParser
      * @param fileLength Length of the file, for progress bar movements.
      * For nexus files, this would be the relative position of the next semicolon = the size of the tree in bytes.
      * @param streamName Name of the tree or file that is being loaded.  Nexus files have names ("tree <name> = ((...));", newick trees are named by file name.
-     * @param progressBar Reference to a progress bar widgit, embedded perhaps in place of the new canvas for this tree.  If this is null, create a new progress bar here.
+     * @param progressListener Receives the characters read against fileLength about every percent
+     * (at least every 64K characters), and once at the end.  May be null.
      * @return Tree parsed from the stream.
+     * @see #setParseListener(ParseListener)
      */
     public Tree tokenize(long fileLength, String streamName,
-            JProgressBar progressBar)
+            ProgressListener progressListener)
     {
         final char openBracket = '(', closeBracket = ')', childSeparator = ',',
         	treeTerminator = lineTerminator, quote = '\'', doubleQuote = '"', infoSeparator = ':';
-        int progress = 0;
-        rootNode = new TreeNode();
-        Tree t = new Tree();
+        long progress = 0;
+        final ParseListener parseListener = this.parseListener;
+        long startNanos = 0, startPosition = 0, startReadNanos = 0;
+        if (parseListener != null)
+        {
+            parseListener.parseStarted(streamName);
+            tokenizer.setTimeReads(true);
+            startPosition = tokenizer.getPosition();
+            startReadNanos = tokenizer.getReadNanos();
+            startNanos = System.nanoTime();
+        }
+        int nodes = 1, internalNodes = 0, depth = 1;
+        rootNode = newNode();
+        Tree t = newTree();
         t.setRootNode(rootNode);
         t.setFileName(streamName);
-        Stack nodeStack = new Stack();
+        Stack nodeStack = this.nodeStack;
+        nodeStack.clear();
         nodeStack.push(rootNode);
         int thisToken;
         TreeNode lastNamed = null;
         boolean EOT = false;
         boolean nameNext = true;
-        int percentage = 0;
+        final long reportStep = Math.max(1 << 16, fileLength / 100);
+        long nextReport = (progressListener == null) ? Long.MAX_VALUE : reportStep;
 	try {
             while (EOT == false &&
                     (thisToken = tokenizer.nextToken()) != StreamTokenizer.TT_EOF)
@@ -383,13 +563,13 @@ public class TreeParser
             	case StreamTokenizer.TT_WORD:
             	    if (!nameNext)
             	        System.err.println("Error: didn't expect this name here: " + tokenizer.sval);
-            	    lastNamed = popAndName(tokenizer.sval, nodeStack);
-            		progress += tokenizer.sval.length();
+            	    lastNamed = popAndName(tokenizer.sval, nodeStack, rootNode);
+            		progress += tokenizer.tokenLength;
             		nameNext = false;
             		break;
             	case StreamTokenizer.TT_NUMBER:
             		if (nameNext)
-            		    lastNamed = popAndName(tokenizer.sval, nodeStack);
+            		    lastNamed = popAndName(tokenizer.sval, nodeStack, rootNode);
             		else
             		{
             		    if (lastNamed != null)
@@ -398,38 +578,45 @@ public class TreeParser
             		        System.err.println("Error: can't set value " + tokenizer.nval + " to a null node");
             		    lastNamed = null;
             		}
-            		progress += (new Double(tokenizer.nval).toString()).length();
+            		progress += tokenizer.tokenLength;
             		nameNext = false;
             		break;
             	case infoSeparator:
             	    if (nameNext)
-            	        lastNamed = popAndName(null, nodeStack);
+            	        lastNamed = popAndName(null, nodeStack, rootNode);
             	    progress += 1;
             	    nameNext = false;
             	    break;
             	case treeTerminator:
             	case StreamTokenizer.TT_EOF:
             	    if (nameNext)
-            	        lastNamed = popAndName(null, nodeStack);
+            	        lastNamed = popAndName(null, nodeStack, rootNode);
             	    EOT = true;
             	    progress += 1;
             	    nameNext = false;
             	    break;
             	case openBracket:
-            	    nodeStack.push(new TreeNode());
+            	    nodeStack.push(newNode());
+            	    nodes++;
+            	    internalNodes++;
+            	    if (nodeStack.size() > depth)
+            	        depth = nodeStack.size();
             	    progress += 1;
             	    nameNext = true;
             	    break;
             	case closeBracket:
             	    if (nameNext)
-            	        lastNamed = popAndName(null, nodeStack);
+            	        lastNamed = popAndName(null, nodeStack, rootNode);
             	    progress += 1;
             	    nameNext = true;
             	    break;
             	case childSeparator:
             	    if (nameNext)
-            	        lastNamed = popAndName(null, nodeStack);
-            	    nodeStack.push(new TreeNode());
+            	        lastNamed = popAndName(null, nodeStack, rootNode);
+            	    nodeStack.push(newNode());
+            	    nodes++;
+            	    if (nodeStack.size() > depth)
+            	        depth = nodeStack.size();
             	    progress += 1;
             	    nameNext = true;
             	    break;
@@ -437,13 +624,151 @@ public class TreeParser
             	    debugOutput("default " + (char)thisToken);
             		break;
             }
+            if (progress >= nextReport)
+            {
+                progressListener.progress(progress, fileLength);
+                nextReport = progress + reportStep;
+            }
         }
         }
         catch (IOException e) {
         }
+        if (progressListener != null)
+            progressListener.progress(progress, fileLength);
         if (!nodeStack.isEmpty())
             System.err.println("Node stack still has " + nodeStack.size() + " things");
-        t.postProcess();
+        if (parseListener == null)
+        {
+            t.postProcess(postProcessStages);
+            return t;
+        }
+        long parsedNanos = System.nanoTime();
+        t.postProcess(postProcessStages);
+        long postProcessNanos = System.nanoTime() - parsedNanos;
+        long readNanos = tokenizer.getReadNanos() - startReadNanos;
+        int duplicates = (postProcessStages & Tree.DEDUP) != 0 ? t.getDuplicateLeafCount() : -1;
+        parseListener.treeParsed(new ParseStats(streamName,
+                tokenizer.getPosition() - startPosition, readNanos,
+                parsedNanos - startNanos - readNanos, postProcessNanos,
+                nodes, nodes - internalNodes, depth, duplicates));
+        return t;
+    }
+    
+    /**
+     * Names the node at the top of {@link #compactStack} and pops it, the
+     * {@link CompactTree} version of {@link #popAndName(String, Stack, TreeNode)}.
+     * Nodes are linked to their parents when they are created, in preorder.
+     * @param name Name of the node, null for unnamed nodes.
+     * @param t Tree being built.
+     * @return Key of the named node, or -1 if the stack was empty.
+     */
+    private int popAndName(String name, CompactTree t)
+    {
+        if (compactTop < 0)
+        {
+            System.out.println("Parser error: no node to name " + name);
+            return -1;
+        }
+        int key = compactStack[compactTop--];
+        if (name != null)
+            t.setName(key, name);
+        return key;
+    }
+    
+    /**
+     * Newick tokenizer that builds a {@link CompactTree} instead of a {@link Tree}.
+     * Reads one tree (up to the terminating semicolon) with the same rules as
+     * {@link #tokenize(long, String, ProgressListener)}, but creates no TreeNode objects.
+     * @param streamName Name of the tree or file that is being loaded.
+     * @return Compact tree parsed from the stream.
+     */
+    public CompactTree tokenizeCompact(String streamName)
+    {
+        final char openBracket = '(', closeBracket = ')', childSeparator = ',',
+            treeTerminator = lineTerminator, doubleQuote = '"', infoSeparator = ':';
+        CompactTree t = new CompactTree(1024);
+        t.setFileName(streamName);
+        compactStack = new int[64];
+        compactTop = 0;
+        compactStack[compactTop] = t.addNode(-1);
+        int thisToken;
+        int lastNamed = -1;
+        boolean EOT = false;
+        boolean nameNext = true;
+        try
+        {
+            while (EOT == false &&
+                    (thisToken = tokenizer.nextToken()) != StreamTokenizer.TT_EOF)
+            {
+                switch (thisToken)
+                {
+                    case doubleQuote:
+                    case StreamTokenizer.TT_WORD:
+                        if (!nameNext)
+                            System.err.println("Error: didn't expect this name here: " + tokenizer.sval);
+                        lastNamed = popAndName(tokenizer.sval, t);
+                        nameNext = false;
+                        break;
+                    case StreamTokenizer.TT_NUMBER:
+                        if (nameNext)
+                            lastNamed = popAndName(null, t);
+                        else
+                        {
+                            if (lastNamed != -1)
+                                t.setWeight(lastNamed, tokenizer.nval);
+                            else
+                                System.err.println("Error: can't set value " + tokenizer.nval + " to a null node");
+                            lastNamed = -1;
+                        }
+                        nameNext = false;
+                        break;
+                    case infoSeparator:
+                        if (nameNext)
+                            lastNamed = popAndName(null, t);
+                        nameNext = false;
+                        break;
+                    case treeTerminator:
+                        if (nameNext)
+                            lastNamed = popAndName(null, t);
+                        EOT = true;
+                        nameNext = false;
+                        break;
+                    case openBracket:
+                    case childSeparator:
+                        if (thisToken == childSeparator && nameNext)
+                            lastNamed = popAndName(null, t);
+                        if (compactTop < 0)
+                        {
+                            System.out.println("Parser error: node outside of the tree");
+                            compactStack[++compactTop] = 0;
+                        }
+                        if (compactTop + 1 == compactStack.length)
+                        {
+                            int[] bigger = new int[compactStack.length * 2];
+                            System.arraycopy(compactStack, 0, bigger, 0, compactStack.length);
+                            compactStack = bigger;
+                        }
+                        int parentKey = compactStack[compactTop];
+                        compactStack[++compactTop] = t.addNode(parentKey);
+                        nameNext = true;
+                        break;
+                    case closeBracket:
+                        if (nameNext)
+                            lastNamed = popAndName(null, t);
+                        nameNext = true;
+                        break;
+                    default:
+                        debugOutput("default " + (char)thisToken);
+                        break;
+                }
+            }
+        }
+        catch (IOException e) {
+        }
+        if (compactTop >= 0)
+            System.err.println("Node stack still has " + (compactTop + 1) + " things");
+        compactStack = null;
+        t.finish();
         return t;
     }
     /**
@@ -456,93 +781,177 @@ public class TreeParser
         final String dimensionID = "dimensions", taxLabelID = "taxlabels";
     }
     
+    /**
+     * Scans a nexus file to the start of the next tree, just after the equals sign of
+     * "tree &lt;name&gt; = ((...));".  Starts looking for a "begin trees" block unless
+     * {@link #inTreeSection} is already set.  Other statements in the tree section
+     * (translate, title, link) are skipped up to their semicolon.
+     * @return True if a tree was found, its name is in {@link #nexusTreeName}: the word, double
+     * quoted string or number after the tree keyword as written, null if there is none.  False
+     * at the end of the tree section or the end of the file.
+     * @throws IOException On read errors.
+     */
+    private boolean findNexusTree() throws IOException
+    {
+        int thisToken;
+        while ((thisToken = tokenizer.nextToken()) != StreamTokenizer.TT_EOF)
+        {
+            if (thisToken == commentOpen)
+            {
+                debugOutput("TEating comment");
+                while (thisToken != StreamTokenizer.TT_EOF && thisToken != commentClose)
+                    thisToken = tokenizer.nextToken(); // eat the comments
+                continue;
+            }
+            if (!inTreeSection)
+            {
+                if (thisToken == StreamTokenizer.TT_WORD && tokenizer.sval.equalsIgnoreCase(beginTag) &&
+                        tokenizer.nextToken() == StreamTokenizer.TT_WORD &&
+                        tokenizer.sval.equalsIgnoreCase(treeSectionTag))
+                {
+                    debugOutput("tokenizing tree section");
+                    inTreeSection = true;
+                }
+                continue;
+            }
+            if (thisToken == StreamTokenizer.TT_WORD)
+            {
+                if (tokenizer.sval.equalsIgnoreCase(endTag))
+                {
+                    inTreeSection = false;
+                    return false;
+                }
+                if (tokenizer.sval.equalsIgnoreCase(treeID) ||
+                        tokenizer.sval.equalsIgnoreCase(utreeID))
+                {
+                    debugOutput("new tree");
+                    thisToken = tokenizer.nextToken(); // tree tag found, next word is a tree name
+                    if (thisToken == StreamTokenizer.TT_WORD || thisToken == '"')
+                        nexusTreeName = tokenizer.sval;
+                    else if (thisToken == StreamTokenizer.TT_NUMBER)
+                        nexusTreeName = tokenizer.numberText(); // tree 4 = ...
+                    else
+                        nexusTreeName = null;
+                    debugOutput("found tree ID: " + nexusTreeName);
+                    while (thisToken != StreamTokenizer.TT_EOF && thisToken != equals && thisToken != lineTerminator)
+                        thisToken = tokenizer.nextToken();
+                    if (thisToken == equals)
+                        return true;
+                    continue;
+                }
+            }
+            // some other statement in the tree section
+            while (thisToken != StreamTokenizer.TT_EOF && thisToken != lineTerminator)
+                thisToken = tokenizer.nextToken();
+        }
+        inTreeSection = false;
+        return false;
+    }
+    
+    /**
+     * Skips a tree found by {@link #findNexusTree()} without building it.
+     * @throws IOException On read errors.
+     */
+    private void skipTree() throws IOException
+    {
+        int thisToken;
+        do
+            thisToken = tokenizer.nextToken();
+        while (thisToken != StreamTokenizer.TT_EOF && thisToken != lineTerminator);
+    }
+    
     /**
      * Tokenize the tree section of a nexus file only, uses newick tokenizer.
-     * @param treeNumbers Vector of Integers for commandline-based input of nexus trees; assume this vector is in ascending order
+     * Trees that aren't selected are skipped without being built.
+     * @param treeNumbers Vector of Integers for commandline-based input of nexus trees; assume this vector is in ascending order.
+     * Null reads all trees, an empty vector reads none.
+     * @param progressListener Receives the number of trees read, may be null.
      * @return arraylist of trees parsed from the tree file.
      */
-    private ArrayList nexusTreeTokenize(Vector treeNumbers)
+    private ArrayList nexusTreeTokenize(Vector treeNumbers, ProgressListener progressListener)
     {
         ArrayList treeArray = new ArrayList();
-        final String
-        titleTag = "title", linkTag = "link", translateTag = "translate";
-        // newick tree subsection stuff (newick encoding)
-        
-        debugOutput("tokenizing tree section");
-        boolean readAllTrees = true;
-        boolean treeSectionEnd = false;
-        boolean nextTreeID = false;
+        long selected = (treeNumbers == null) ? -1 : treeNumbers.size();
         int nextNumber = -1;
-        int thisToken;
         int currTree = 0;
-        String currTreeName = null;
         if (treeNumbers != null && treeNumbers.size() > 0)
         {
-            readAllTrees = false;
             nextNumber = ((Integer)treeNumbers.get(0)).intValue();
             treeNumbers.remove(0);
         }
-        while ((readAllTrees || nextNumber != -1) &&
-                !treeSectionEnd)
-            try
+        inTreeSection = true;
+        try
+        {
+            while (findNexusTree())
             {
-                while (!treeSectionEnd &&
-                        (thisToken = tokenizer.nextToken()) != StreamTokenizer.TT_EOF)
+                if (treeNumbers == null || currTree == nextNumber)
                 {
-                    switch (thisToken)
+                    Tree t = tokenize(0, nexusTreeName, null);
+                    treeArray.add(t);
+                    if (progressListener != null)
+                        progressListener.progress(treeArray.size(), selected);
+                    if (treeNumbers != null && !treeNumbers.isEmpty())
                     {
-                    	case StreamTokenizer.TT_WORD:
-                    	    if (nextTreeID)
-                    	    {
-                    	        currTreeName = tokenizer.sval;
-                    	        debugOutput("found tree ID: " + currTreeName);
-                    	        nextTreeID = false;
-                    	    }
-                    	    else if (tokenizer.sval.equalsIgnoreCase(treeID) ||
-                    	            tokenizer.sval.equalsIgnoreCase(utreeID))
-                    	    {
-                    	        debugOutput("new tree"); 
-                    	        nextTreeID = true; // tree tag found, next word is a tree name
-                    	    }
-                    	    else if (tokenizer.sval.equalsIgnoreCase(endTag))
-                    	        treeSectionEnd = true;
-//                    	    debugOutput("TWord: " + tokenizer.sval);
-                    	break;
-                    	case equals:
-                    	{
-                            if (treeNumbers == null || currTree == nextNumber)
-                            {
-                                Tree t = tokenize(0, currTreeName, null);
-                                treeArray.add(t);
-                                if (treeNumbers != null && !treeNumbers.isEmpty())
-                                {
-                                    nextNumber = ((Integer)treeNumbers.get(0)).intValue();
-                                    treeNumbers.remove(0);
-                                }
-                                else
-                                    nextNumber = -1;
-                            }
-                            currTree++;
-                    	}
-                    	    break; // eat the equals
-                    	case commentOpen:
-                    	    debugOutput("TEating comment");
-                    	    while (thisToken != StreamTokenizer.TT_EOF && thisToken != commentClose)
-                    	    {
-                    	        thisToken = tokenizer.nextToken(); // eat the comments
-                    	    }
-                    	break;
-                    	default:
-                    	    debugOutput("Tdefault " + (char)thisToken);
-                    		break;
+                        nextNumber = ((Integer)treeNumbers.get(0)).intValue();
+                        treeNumbers.remove(0);
                     }
+                    else
+                        nextNumber = -1;
                 }
+                else
+                    skipTree();
+                currTree++;
             }
-            catch (IOException e)
-            {
-                System.err.println("Nexus tokenizer error: " + e);
-            }
-            return treeArray;
+        }
+        catch (IOException e)
+        {
+            System.err.println("Nexus tokenizer error: " + e);
+        }
+        return treeArray;
+    }
+    
+    /**
+     * Reads the next tree for a {@link TreeIterator}.
+     * @param nexus True to read trees from nexus tree sections, false for a file of newick trees.
+     * @param streamName Name for newick trees; nexus trees are named by the file.
+     * @return The next tree, or null at the end of the input.
+     * @throws IOException On read errors.
+     */
+    Tree nextTree(boolean nexus, String streamName) throws IOException
+    {
+        if (nexus)
+        {
+            while (!findNexusTree())
+                if (tokenizer.ttype == StreamTokenizer.TT_EOF)
+                    return null;
+            return tokenize(0, nexusTreeName, null);
+        }
+        if (tokenizer.nextToken() == StreamTokenizer.TT_EOF)
+            return null;
+        tokenizer.pushBack();
+        return tokenize(0, streamName, null);
+    }
+    
+    /**
+     * Lazily parses the semicolon terminated newick trees of the input, one tree per
+     * {@link Iterator#next()} call.  Trees are not kept by the parser.
+     * @param streamName Name of the trees.
+     * @return Iterator over the remaining trees of the input.
+     */
+    public TreeIterator trees(String streamName)
+    {
+        return new TreeIterator(this, false, streamName);
+    }
+    
+    /**
+     * Lazily parses the trees of all tree sections of a nexus input, one tree per
+     * {@link Iterator#next()} call.  Trees are not kept by the parser, unlike
+     * {@link #nexusTokenize(Vector, ProgressListener)}.
+     * @return Iterator over the remaining nexus trees of the input.
+     */
+    public TreeIterator nexusTrees()
+    {
+        return new TreeIterator(this, true, null);
     }
     
     /**
@@ -561,11 +970,14 @@ public class TreeParser
     /**
      * Tokenize a nexus file, uses newick tokenizer after identifying the region with the tree information.
      * @param treeNumbers Vector of Integers for commandline-based input of nexus trees; assume this vector is in ascending order.
+     * Null reads all trees.
+     * @param progressListener Receives the number of trees read after each tree, against the
+     * number of selected trees (-1 when all trees are read).  May be null.
      * @return arraylist of trees parsed from the nexus file.
      */
-    public ArrayList nexusTokenize(Vector treeNumbers, JProgressBar progressBar)
+    public ArrayList nexusTokenize(Vector treeNumbers, ProgressListener progressListener)
     {
-        System.out.println("Nexus tokenize: " + treeNumbers.toString());
+        System.out.println("Nexus tokenize: " + treeNumbers);
         ArrayList treeArray = null;
         // Nexus string externalization: all strings are case insensitive
         final String 
@@ -592,7 +1004,7 @@ public class TreeParser
                 	        debugOutput("beginning new section: " + tokenizer.sval);
                 	        thisToken = tokenizer.nextToken();
                 	        if (tokenizer.sval.equalsIgnoreCase(treeSectionTag))
-                	            treeArray = nexusTreeTokenize(treeNumbers);
+                	            treeArray = nexusTreeTokenize(treeNumbers, progressListener);
                 	        else if (tokenizer.sval.equalsIgnoreCase(characterTag))
                 	            nexusCharacterTokenize();
                 	        else if (tokenizer.sval.equalsIgnoreCase(taxaTag))
@@ -631,13 +1043,13 @@ public class TreeParser
         File f = new File(fileName);
         try
         {
-            BufferedReader r = new BufferedReader(new FileReader(f));
-            TreeParser tp = new TreeParser(r);
+            TreeParser tp = new TreeParser(f.toPath());
             Tree t = tp.tokenize(f.length(), f.getName(), null);
+            tp.close();
         }
-        catch (FileNotFoundException e)
+        catch (IOException e)
         {
-            System.out.println("Couldn't find file: " + fileName);
+            System.out.println("Couldn't read file: " + fileName);
         }
         System.out.println("Parsed in " + ((System.currentTimeMillis() - start)/1000.0) + " s");
         System.exit(0);
@@ -0,0 +1,23 @@
+package net.sourceforge.olduvai.treejuxtaposer;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+/**
+ * Chooses which trees of a nexus file to load, for {@link TreeParser#chooseNames(ArrayList)}.
+ * Headless code can select by name or number; the interactive chooser is
+ * {@link net.sourceforge.olduvai.treejuxtaposer.swing.SwingTreeChooser}.
+ *
+ * @see TreeParser#setTreeSelectionStrategy(TreeSelectionStrategy)
+ * @see TreeParser#nexusFileTreeNames(String)
+ */
+public interface TreeSelectionStrategy
+{
+    /**
+     * Selects trees from the trees of a nexus file.
+     * @param treeNames Names of the trees, in file order.
+     * @return Integer indices of the trees to load, in ascending order, as taken by
+     * {@link TreeParser#nexusTokenize(Vector, ProgressListener)}.  Empty to load no trees.
+     */
+    Vector chooseTrees(ArrayList treeNames);
+}
@@ -0,0 +1,193 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Best corresponding nodes between two trees, as drawn by TreeJuxtaposer.  The
+ * similarity of a node A of the first tree and a node B of the second is
+ * |L(A) &cap; L(B)| / |L(A) &cup; L(B)| over the leaf names under them; the best
+ * corresponding node of A is the B maximizing it and the BCN score of A is that maximum.
+ *
+ * Only nodes of the subtree that the leaves of A induce in the second tree can be
+ * best: moving from such a node up to the next one adds leaves to B but none of A.
+ * Those nodes are the leaves themselves and the lowest common ancestors of leaves
+ * adjacent in the second tree's leaf order, found with an {@link LcaIndex}.  Leaf
+ * positions under each A are kept sorted by merging the children's sorted runs in
+ * postorder, so each candidate's overlap is counted with two binary searches.  The
+ * first tree's subtrees are processed in parallel.  Memory is a few int arrays over
+ * the nodes and leaves, independent of the overlaps.  Time is O(|L(A)| log |L(A)|)
+ * per node A, which sums to O(n log^2 n) for balanced trees.
+ *
+ * @see TreeNode#getBcnScore()
+ */
+public class BestCorrNodes {
+
+	/** Tree whose nodes are matched. */
+	private Tree from;
+	/** Tree searched for matches. */
+	private Tree to;
+	/** Lowest common ancestors in the searched tree. */
+	private LcaIndex lca;
+	/** Leaf keys of the searched tree in leaf order. */
+	private int[] toLeafKey;
+	/**
+	 * Leaf index in the searched tree of each leaf of the first tree, by the first tree's
+	 * leaf index; the leaves of a node are sorted in place in postorder.  Leaves missing
+	 * from the searched tree are {@link Integer#MAX_VALUE} and sort last.
+	 */
+	private int[] positions;
+	/** BCN score by key of the first tree. */
+	private float[] scores;
+	/** Key in the searched tree of the best corresponding node, by key of the first tree; -1 for none. */
+	private int[] best;
+	/** Merge buffer for each worker thread. */
+	private ThreadLocal buffers = new ThreadLocal();
+
+	/**
+	 * Finds the best corresponding node in one tree for every node of another.
+	 * Leaves are matched by name.
+	 * @param from Post processed tree whose nodes are matched.
+	 * @param to Post processed tree searched for matches.
+	 */
+	public BestCorrNodes(Tree from, Tree to) {
+		this.from = from;
+		this.to = to;
+		lca = to.getLcaIndex();
+		int toLeaves = to.getLeafCount();
+		toLeafKey = new int[toLeaves];
+		HashMap toIndex = new HashMap(toLeaves * 4 / 3 + 1);
+		for (int i = 0; i < toLeaves; i++) {
+			toLeafKey[i] = to.getLeaf(i).key;
+			toIndex.put(to.getLeaf(i).getName(), Integer.valueOf(i));
+		}
+		positions = new int[from.getLeafCount()];
+		for (int i = 0; i < positions.length; i++) {
+			Integer p = (Integer) toIndex.get(from.getLeaf(i).getName());
+			positions[i] = (p == null) ? Integer.MAX_VALUE : p.intValue();
+		}
+		scores = new float[from.getTotalNodeCount()];
+		best = new int[scores.length];
+		new ParallelPostorder() {
+			void visit(TreeNode n) {
+				match(n);
+			}
+		}.run(from.getRoot());
+		buffers = null;
+	}
+
+	/**
+	 * Sorts the leaf positions under a node, its children being sorted already, and
+	 * scores its candidates.
+	 * @param n Node of the first tree.
+	 */
+	private void match(TreeNode n) {
+		int lo = n.getMinLeafIndex();
+		int hi = n.getMaxLeafIndex() + 1;
+		if (n.numberChildren() == 2)
+			merge(lo, n.getChild(1).getMinLeafIndex(), hi);
+		else if (n.numberChildren() > 2)
+			Arrays.sort(positions, lo, hi);
+
+		int size = hi - lo;
+		int matched = lowerBound(lo, hi, Integer.MAX_VALUE) - lo;
+		float bestScore = 0;
+		int bestKey = -1;
+		if (matched > 0) {
+			// a single leaf shares one leaf of n
+			bestScore = 1.0f / size;
+			bestKey = toLeafKey[positions[lo]];
+		}
+		int end = lo + matched;
+		for (int i = lo; i + 1 < end; i++) {
+			int c = lca.lca(toLeafKey[positions[i]], toLeafKey[positions[i + 1]]);
+			TreeNode candidate = to.getNodeByKey(c);
+			int shared = lowerBound(i, end, candidate.getMaxLeafIndex() + 1)
+				- lowerBound(lo, i + 1, candidate.getMinLeafIndex());
+			float score = (float) shared / (size + candidate.numberLeaves - shared);
+			if (score > bestScore) {
+				bestScore = score;
+				bestKey = c;
+			}
+		}
+		scores[n.key] = bestScore;
+		best[n.key] = bestKey;
+	}
+
+	/**
+	 * Merges two adjacent sorted runs of positions.
+	 * @param lo Start of the first run.
+	 * @param mid Start of the second run.
+	 * @param hi End of the second run.
+	 */
+	private void merge(int lo, int mid, int hi) {
+		if (positions[mid - 1] <= positions[mid])
+			return;
+		int[] buffer = (int[]) buffers.get();
+		if (buffer == null || buffer.length < mid - lo) {
+			buffer = new int[Math.max(mid - lo, 1024)];
+			buffers.set(buffer);
+		}
+		System.arraycopy(positions, lo, buffer, 0, mid - lo);
+		int i = 0, j = mid, k = lo, end = mid - lo;
+		while (i < end && j < hi)
+			positions[k++] = (buffer[i] <= positions[j]) ? buffer[i++] : positions[j++];
+		while (i < end)
+			positions[k++] = buffer[i++];
+	}
+
+	/**
+	 * First position in a sorted range not below a value.
+	 * @param lo Start of the range.
+	 * @param hi End of the range.
+	 * @param value Value searched.
+	 * @return Index in lo .. hi.
+	 */
+	private int lowerBound(int lo, int hi, int value) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * BCN score of a node of the first tree.
+	 * @param n Node of the first tree.
+	 * @return Best similarity in [0,1], 0 if no leaf under n is in the second tree.
+	 */
+	public float getScore(TreeNode n) {
+		return scores[n.key];
+	}
+
+	/**
+	 * Best corresponding node of a node of the first tree.
+	 * @param n Node of the first tree.
+	 * @return Node of the second tree, null if no leaf under n is in the second tree.
+	 */
+	public TreeNode getBestNode(TreeNode n) {
+		int k = best[n.key];
+		return (k < 0) ? null : to.getNodeByKey(k);
+	}
+
+	/**
+	 * Stores the scores in the nodes of the first tree, see {@link TreeNode#getBcnScore()}.
+	 */
+	public void setScores() {
+		for (int k = 0; k < scores.length; k++)
+			from.getNodeByKey(k).setBcnScore(scores[k]);
+	}
+
+	/**
+	 * Computes and stores the BCN scores of both trees against each other.
+	 * @param a First post processed tree.
+	 * @param b Second post processed tree.
+	 */
+	public static void setScores(Tree a, Tree b) {
+		new BestCorrNodes(a, b).setScores();
+		new BestCorrNodes(b, a).setScores();
+	}
+}
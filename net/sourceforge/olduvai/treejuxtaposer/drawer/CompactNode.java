@@ -0,0 +1,102 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+/**
+ * Lightweight view of one node of a {@link CompactTree}, with the same accessors as
+ * {@link TreeNode}.  Views are created on request and hold no data besides the tree and key,
+ * so they can be thrown away freely.
+ *
+ * @see CompactTree#getNodeByKey(int)
+ */
+public class CompactNode {
+
+	/** Tree this node belongs to. */
+	private CompactTree tree;
+
+	/** Preorder key of this node. */
+	public final int key;
+
+	/**
+	 * View of a node.
+	 * @param tree Tree of the node.
+	 * @param key Key of the node.
+	 */
+	CompactNode(CompactTree tree, int key) {
+		this.tree = tree;
+		this.key = key;
+	}
+
+	/**
+	 * Returns the key for this node.
+	 * @return The value of {@link #key} for this node.
+	 */
+	public int getKey() { return key; }
+
+	/**
+	 * Returns the name of this node.
+	 * @return Name, "" for unnamed nodes.
+	 */
+	public String getName() { return tree.getName(key); }
+
+	/**
+	 * Get the weight of this node, which encodes the length of the edge above it.
+	 * @return Edge weight for this node.
+	 */
+	public float getWeight() { return tree.getWeight(key); }
+
+	/**
+	 * Get the parent for this node.
+	 * @return Parent node, or null for the root.
+	 */
+	public CompactNode parent() { return tree.getNodeByKey(tree.getParent(key)); }
+
+	/**
+	 * Get the number of children under this node.  Linear in the number of children.
+	 * @return Number of children.
+	 */
+	public int numberChildren() {
+		int count = 0;
+		for (int c = tree.getFirstChild(key); c >= 0; c = tree.getNextSibling(c))
+			count++;
+		return count;
+	}
+
+	/**
+	 * Get a given child for this node, with range checking.  Linear in i.
+	 * @param i The child index to get.
+	 * @return The i(th) child for this node, or null.
+	 */
+	public CompactNode getChild(int i) {
+		int c = tree.getFirstChild(key);
+		for (; c >= 0 && i > 0; i--)
+			c = tree.getNextSibling(c);
+		return tree.getNodeByKey(c);
+	}
+
+	/**
+	 * Tests to determine if this node is a leaf.
+	 * @return True if this node has no children.
+	 */
+	public boolean isLeaf() { return tree.isLeaf(key); }
+
+	/**
+	 * Tests to determine if this node is the root of its tree.
+	 * @return True if this node has no parent.
+	 */
+	public boolean isRoot() { return tree.getParent(key) < 0; }
+
+	/** Returns the minimum key value of nodes in the subtree rooted by this node.
+	 * @return The key for this node. */
+	public int getMin() { return key; }
+
+	/** Returns the maximum key value of nodes in the subtree rooted by this node.
+	 * @return The key for the rightmost leaf node. */
+	public int getMax() { return tree.getRightmostLeaf(key); }
+
+	/**
+	 * String value of this node, name + key.
+	 * @return String representation of this node.
+	 */
+	public String toString() {
+		return getName() + "(" + key + ")";
+	}
+}
@@ -0,0 +1,410 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+/**
+ * Array based (phylogenetic) tree for very large trees.  Holds the same topology,
+ * weights and names as a {@link Tree}, without a {@link TreeNode} object per node.
+ *
+ * Nodes are identified by their key, which is the preorder index (root = 0) as for
+ * {@link TreeNode#key}.  Per node this stores the parent, first child, next sibling and
+ * rightmost leaf keys, the edge weight and the position of the name in a shared char
+ * table, about 28 bytes plus the name characters.
+ *
+ * Trees are built by the parser ({@link net.sourceforge.olduvai.treejuxtaposer.TreeParser#tokenizeCompact(String)})
+ * with {@link #addNode(int)}, {@link #setName(int, String)} and {@link #setWeight(int, double)}
+ * in preorder, then {@link #finish()}.  Unlike {@link Tree#postProcess()}, leaves with the same
+ * name are not renamed; {@link #getNodeByName(String)} returns the first node in preorder.
+ *
+ * @see Tree
+ * @see CompactNode
+ */
+public class CompactTree {
+
+	/** Parent key for each node, -1 for the root. */
+	private int[] parent;
+	/** First child key for each node, -1 for leaves. */
+	private int[] firstChild;
+	/** Next sibling key for each node, -1 for last children and the root. */
+	private int[] nextSibling;
+	/** Rightmost leaf key for each node, the largest key in the subtree.  Set by {@link #finish()}. */
+	private int[] rightmostLeaf;
+	/** Weight of the edge above each node. */
+	private float[] weight;
+	/** Start of each node's name in {@link #names}. */
+	private int[] nameStart;
+	/** Length of each node's name, 0 for unnamed nodes. */
+	private int[] nameLength;
+	/** Name table, all node names one after the other. */
+	private char[] names;
+	/** Used part of {@link #names}. */
+	private int namesSize = 0;
+	/** Last child key for each node while building, for linking siblings.  Dropped by {@link #finish()}. */
+	private int[] lastChild;
+	/** Number of nodes. */
+	private int size = 0;
+	/** Number of leaves, set by {@link #finish()}. */
+	private int numLeaves = 0;
+	/** Height of the tree, root is at height 1, set by {@link #finish()}. */
+	private int height = 0;
+	/** Open addressing table of key+1 by name hash, built on first {@link #getNodeByName(String)}. */
+	private int[] nameTable = null;
+	/** File name for this tree. */
+	private String fileName = null;
+
+	/**
+	 * Empty tree, nodes are added by the parser.
+	 */
+	public CompactTree() {
+		this(16);
+	}
+
+	/**
+	 * Empty tree with room for the given number of nodes.
+	 * @param capacity Expected node count.
+	 */
+	public CompactTree(int capacity) {
+		capacity = Math.max(capacity, 1);
+		parent = new int[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		lastChild = new int[capacity];
+		weight = new float[capacity];
+		nameStart = new int[capacity];
+		nameLength = new int[capacity];
+		names = new char[capacity * 8];
+	}
+
+	/**
+	 * Adds a node as the last child of a node, nodes must be added in preorder.
+	 * @param parentKey Key of the parent, -1 for the root.
+	 * @return Key of the new node.
+	 */
+	public int addNode(int parentKey) {
+		if (size == parent.length)
+			grow();
+		int k = size++;
+		parent[k] = parentKey;
+		firstChild[k] = -1;
+		nextSibling[k] = -1;
+		lastChild[k] = -1;
+		if (parentKey >= 0) {
+			if (lastChild[parentKey] < 0)
+				firstChild[parentKey] = k;
+			else
+				nextSibling[lastChild[parentKey]] = k;
+			lastChild[parentKey] = k;
+		}
+		return k;
+	}
+
+	/** Doubles the per node arrays. */
+	private void grow() {
+		int n = parent.length * 2;
+		parent = copyOf(parent, n);
+		firstChild = copyOf(firstChild, n);
+		nextSibling = copyOf(nextSibling, n);
+		lastChild = copyOf(lastChild, n);
+		nameStart = copyOf(nameStart, n);
+		nameLength = copyOf(nameLength, n);
+		float[] w = new float[n];
+		System.arraycopy(weight, 0, w, 0, size);
+		weight = w;
+	}
+
+	/**
+	 * Resizes an int array.
+	 * @param a Array to copy.
+	 * @param n New length.
+	 * @return Copy of the first {@link #size} entries of a, with length n.
+	 */
+	private int[] copyOf(int[] a, int n) {
+		int[] b = new int[n];
+		System.arraycopy(a, 0, b, 0, Math.min(size, n));
+		return b;
+	}
+
+	/**
+	 * Sets the name of a node, copying it into the name table.
+	 * @param key Node to name.
+	 * @param s New name, null or "" for unnamed nodes.
+	 */
+	public void setName(int key, String s) {
+		int length = (s == null) ? 0 : s.length();
+		if (namesSize + length > names.length) {
+			char[] c = new char[Math.max(names.length * 2, namesSize + length)];
+			System.arraycopy(names, 0, c, 0, namesSize);
+			names = c;
+		}
+		if (length > 0)
+			s.getChars(0, length, names, namesSize);
+		nameStart[key] = namesSize;
+		nameLength[key] = length;
+		namesSize += length;
+		nameTable = null;
+	}
+
+	/**
+	 * Sets the weight of the edge above a node.
+	 * @param key Node to set.
+	 * @param w New edge weight, stored as a float like {@link TreeNode#setWeight(double)}.
+	 */
+	public void setWeight(int key, double w) {
+		weight[key] = (float) w;
+	}
+
+	/**
+	 * Finishes building: sets rightmost leaves, leaf count and height, and trims the arrays.
+	 * Runs in two linear passes over the arrays.
+	 */
+	public void finish() {
+		int n = size;
+		parent = copyOf(parent, n);
+		firstChild = copyOf(firstChild, n);
+		nextSibling = copyOf(nextSibling, n);
+		nameStart = copyOf(nameStart, n);
+		nameLength = copyOf(nameLength, n);
+		float[] w = new float[n];
+		System.arraycopy(weight, 0, w, 0, n);
+		weight = w;
+		char[] c = new char[namesSize];
+		System.arraycopy(names, 0, c, 0, namesSize);
+		names = c;
+
+		// children have larger keys than parents, so reverse key order sees children first
+		rightmostLeaf = lastChild;
+		lastChild = null;
+		numLeaves = 0;
+		for (int k = n - 1; k >= 0; k--) {
+			if (firstChild[k] < 0) {
+				rightmostLeaf[k] = k;
+				numLeaves++;
+			}
+			else
+				rightmostLeaf[k] = rightmostLeaf[rightmostLeaf[k]];
+		}
+		rightmostLeaf = copyOf(rightmostLeaf, n);
+
+		// heights, parents come before children in key order
+		int[] depth = new int[n];
+		height = (n > 0) ? 1 : 0;
+		for (int k = 0; k < n; k++) {
+			depth[k] = (parent[k] < 0) ? 1 : depth[parent[k]] + 1;
+			if (depth[k] > height)
+				height = depth[k];
+		}
+	}
+
+	/**
+	 * Number of nodes in the tree.
+	 * @return Node count, internal nodes and leaves.
+	 */
+	public int getTotalNodeCount() { return size; }
+
+	/**
+	 * Returns the number of leaves in this tree.
+	 * @return value of {@link #numLeaves}.
+	 */
+	public int getLeafCount() { return numLeaves; }
+
+	/**
+	 * Accessor for height of tree.  This is also the longest path from the root to some leaf node.
+	 * @return value of {@link #height}.
+	 */
+	public int getHeight() { return height; }
+
+	/**
+	 * File name accessor.
+	 * @return value of {@link #fileName}.
+	 */
+	public String getName() { return fileName; }
+
+	/**
+	 * Sets the file name.
+	 * @param tn New value for file name.
+	 */
+	public void setFileName(String tn) { fileName = tn; }
+
+	/**
+	 * Returns a lightweight view of the node with the given key.
+	 * @param key Key of the node to retrieve.
+	 * @return View of the node, or null if there is no such key.
+	 */
+	public CompactNode getNodeByKey(int key) {
+		if (key < 0 || key >= size)
+			return null;
+		return new CompactNode(this, key);
+	}
+
+	/**
+	 * Root accessor.
+	 * @return View of the root node.
+	 */
+	public CompactNode getRoot() { return getNodeByKey(0); }
+
+	/**
+	 * Parent of a node.
+	 * @param key Node key.
+	 * @return Parent key, or -1 for the root.
+	 */
+	public int getParent(int key) { return parent[key]; }
+
+	/**
+	 * First child of a node.
+	 * @param key Node key.
+	 * @return First child key, or -1 for leaves.
+	 */
+	public int getFirstChild(int key) { return firstChild[key]; }
+
+	/**
+	 * Next sibling of a node.
+	 * @param key Node key.
+	 * @return Key of the next child of the same parent, or -1.
+	 */
+	public int getNextSibling(int key) { return nextSibling[key]; }
+
+	/**
+	 * Rightmost leaf of a node.  The subtree of a node is the key range [key, getRightmostLeaf(key)].
+	 * @param key Node key.
+	 * @return Key of the rightmost (maximum) leaf under the node, the node itself for leaves.
+	 */
+	public int getRightmostLeaf(int key) { return rightmostLeaf[key]; }
+
+	/**
+	 * Leftmost leaf of a node.
+	 * @param key Node key.
+	 * @return Key of the leftmost (minimum) leaf under the node, the node itself for leaves.
+	 */
+	public int getLeftmostLeaf(int key) {
+		while (firstChild[key] >= 0)
+			key = firstChild[key];
+		return key;
+	}
+
+	/**
+	 * Next node in preorder, the tree equivalent of {@link TreeNode#preorderNext}.
+	 * @param key Node key.
+	 * @return Key of the next node in preorder, or -1 after the last node.
+	 */
+	public int getPreorderNext(int key) { return (key + 1 < size) ? key + 1 : -1; }
+
+	/**
+	 * Tests to determine if a node is a leaf.
+	 * @param key Node key.
+	 * @return True if the node has no children.
+	 */
+	public boolean isLeaf(int key) { return firstChild[key] < 0; }
+
+	/**
+	 * Weight of the edge above a node.
+	 * @param key Node key.
+	 * @return Edge weight.
+	 */
+	public float getWeight(int key) { return weight[key]; }
+
+	/**
+	 * Name of a node, created from the name table.
+	 * @param key Node key.
+	 * @return Node name, "" for unnamed nodes.
+	 */
+	public String getName(int key) {
+		return new String(names, nameStart[key], nameLength[key]);
+	}
+
+	/**
+	 * Returns the key of the node with the given name.
+	 * The name lookup table is built on the first call.
+	 * @param s Name of the node to find.
+	 * @return Key of the first node in preorder with this name, or -1.
+	 */
+	public int getNodeByName(String s) {
+		if (s == null || s.length() == 0)
+			return -1;
+		if (nameTable == null)
+			buildNameTable();
+		int mask = nameTable.length - 1;
+		for (int i = hash(s) & mask; nameTable[i] != 0; i = (i + 1) & mask) {
+			int k = nameTable[i] - 1;
+			if (nameEquals(k, s))
+				return k;
+		}
+		return -1;
+	}
+
+	/** Builds {@link #nameTable} with every named node, first node in preorder wins. */
+	private void buildNameTable() {
+		int capacity = 2;
+		while (capacity < size * 2)
+			capacity <<= 1;
+		int[] table = new int[capacity];
+		int mask = capacity - 1;
+		for (int k = 0; k < size; k++) {
+			if (nameLength[k] == 0)
+				continue;
+			int h = 0;
+			int start = nameStart[k];
+			for (int i = 0; i < nameLength[k]; i++)
+				h = 31 * h + names[start + i];
+			int i = mix(h) & mask;
+			boolean duplicate = false;
+			for (; table[i] != 0; i = (i + 1) & mask) {
+				int other = table[i] - 1;
+				if (nameLength[other] == nameLength[k] && sameName(other, k)) {
+					duplicate = true;
+					break;
+				}
+			}
+			if (!duplicate)
+				table[i] = k + 1;
+		}
+		nameTable = table;
+	}
+
+	/**
+	 * Hash of a string, the same as computed over the name table in {@link #buildNameTable()}.
+	 * @param s String to hash.
+	 * @return Mixed hash.
+	 */
+	private static int hash(String s) {
+		return mix(s.hashCode());
+	}
+
+	/**
+	 * Spreads the bits of a String hash code for the power of two table.
+	 * @param h Hash code.
+	 * @return Mixed hash code.
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Compares a node name to a string without creating a String.
+	 * @param key Node key.
+	 * @param s String to compare.
+	 * @return True if the name of the node is s.
+	 */
+	private boolean nameEquals(int key, String s) {
+		int length = nameLength[key];
+		if (length != s.length())
+			return false;
+		int start = nameStart[key];
+		for (int i = 0; i < length; i++)
+			if (names[start + i] != s.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Compares two node names of the same length.
+	 * @param a First node key.
+	 * @param b Second node key.
+	 * @return True if both names have the same characters.
+	 */
+	private boolean sameName(int a, int b) {
+		int sa = nameStart[a], sb = nameStart[b];
+		for (int i = 0; i < nameLength[a]; i++)
+			if (names[sa + i] != names[sb + i])
+				return false;
+		return true;
+	}
+}
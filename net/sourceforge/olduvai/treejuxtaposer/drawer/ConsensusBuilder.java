@@ -0,0 +1,411 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Builds a majority-rule or greedy consensus tree from trees added one at a time,
+ * for example straight from a {@link net.sourceforge.olduvai.treejuxtaposer.TreeIterator},
+ * so the sample is never held in memory.
+ *
+ * Clusters of each tree are counted in a hash table keyed by their {@link TreeSplits}
+ * fingerprints; a cluster's taxa are only collected, as a bitset, the first time it is
+ * seen.  When the number of trees is known in advance, a majority-rule builder drops
+ * clusters that can no longer pass the threshold whenever the table fills; once the
+ * threshold fraction of the sample is in, only clusters that may still reach it are
+ * kept.  Work is linear in the total size of the trees added.
+ *
+ * All trees must have the leaf names of the first tree.  The consensus is an ordinary
+ * post processed {@link Tree}; the support of each internal node, the fraction of trees
+ * containing its cluster, is stored in {@link TreeNode#weight} or as its name.
+ */
+public class ConsensusBuilder {
+
+	/** Taxon names, from the first tree. */
+	private String[] taxa;
+	/** True to count unrooted splits, false for rooted clusters. */
+	private boolean rooted;
+	/** Fraction of trees a cluster must be in to be part of a majority-rule consensus. */
+	private double threshold;
+	/** Expected number of trees for pruning, 0 if unknown. */
+	private int expectedTrees;
+	/** True to build a greedy consensus rather than a majority-rule one. */
+	private boolean greedy = false;
+	/** True to give supports as node names rather than weights. */
+	private boolean supportAsLabels = false;
+	/** Number of trees added. */
+	private int trees = 0;
+
+	/** Open addressing table of clusters. */
+	private Split[] table = new Split[1024];
+	/** Number of clusters in the table. */
+	private int size = 0;
+
+	/** A counted cluster. */
+	private static class Split {
+		/** Fingerprint high word. */
+		long high;
+		/** Fingerprint low word. */
+		long low;
+		/** Number of trees containing the cluster. */
+		int count;
+		/** Number of the last tree that counted the cluster, so each tree counts it once. */
+		int lastTree;
+		/** Number of taxa in the cluster. */
+		int taxa;
+		/** Taxa of the cluster, bit i for taxon i. */
+		long[] bits;
+	}
+
+	/**
+	 * Majority-rule builder for rooted clusters, without pruning.
+	 */
+	public ConsensusBuilder() {
+		this(0, 0.5, true);
+	}
+
+	/**
+	 * Consensus builder.
+	 * @param expectedTrees Number of trees that will be added, 0 if unknown.  If known,
+	 * clusters that can't reach the threshold are dropped early; adding more trees than
+	 * this is an error.
+	 * @param threshold Majority-rule threshold in [0.5, 1): clusters in more than this
+	 * fraction of the trees are kept.
+	 * @param rooted True to count clusters of rooted trees, false for unrooted splits.
+	 */
+	public ConsensusBuilder(int expectedTrees, double threshold, boolean rooted) {
+		if (threshold < 0.5 || threshold >= 1)
+			throw new IllegalArgumentException("Threshold must be in [0.5, 1)");
+		this.expectedTrees = expectedTrees;
+		this.threshold = threshold;
+		this.rooted = rooted;
+	}
+
+	/**
+	 * Selects greedy consensus: clusters are taken in decreasing order of support as long
+	 * as they are compatible with those taken before.  Disables pruning, since rare
+	 * clusters may be taken.
+	 * @param greedy True for greedy, false for majority rule.
+	 */
+	public void setGreedy(boolean greedy) {
+		this.greedy = greedy;
+	}
+
+	/**
+	 * Chooses where supports are stored in the consensus.
+	 * @param labels True to name internal nodes by their support, false to store it as their weight.
+	 */
+	public void setSupportAsLabels(boolean labels) {
+		supportAsLabels = labels;
+	}
+
+	/**
+	 * Number of trees added so far.
+	 * @return Tree count.
+	 */
+	public int getTreeCount() {
+		return trees;
+	}
+
+	/**
+	 * Number of distinct clusters currently counted.
+	 * @return Table size.
+	 */
+	public int getSplitCount() {
+		return size;
+	}
+
+	/**
+	 * Counts the clusters of a tree.  The tree is not kept.
+	 * @param t Post processed tree.
+	 * @throws IllegalArgumentException If the leaf names differ from those of the first tree,
+	 * or more trees are added than expected.
+	 */
+	public void add(Tree t) {
+		if (taxa == null) {
+			taxa = new String[t.getLeafCount()];
+			for (int i = 0; i < taxa.length; i++)
+				taxa[i] = t.getLeaf(i).getName();
+		}
+		if (t.getLeafCount() != taxa.length)
+			throw new IllegalArgumentException("Tree has " + t.getLeafCount() + " leaves, expected " + taxa.length);
+		if (expectedTrees > 0 && trees == expectedTrees)
+			throw new IllegalArgumentException("More than " + expectedTrees + " trees added");
+		TreeSplits splits = new TreeSplits(t, taxa, false);
+		trees++;
+		int n = taxa.length;
+		for (int k = 0; k < t.getTotalNodeCount(); k++) {
+			TreeNode node = t.getNodeByKey(k);
+			if (node.numberChildren() < 2 || node.numberLeaves >= n - (rooted ? 0 : 1))
+				continue;
+			long high = splits.getFingerprintHigh(node, !rooted);
+			long low = splits.getFingerprintLow(node, !rooted);
+			Split s = find(high, low);
+			if (s == null) {
+				s = new Split();
+				s.high = high;
+				s.low = low;
+				s.bits = bits(t, node, splits);
+				s.taxa = 0;
+				for (int w = 0; w < s.bits.length; w++)
+					s.taxa += Long.bitCount(s.bits[w]);
+				insert(s);
+			}
+			if (s.lastTree != trees) {
+				s.lastTree = trees;
+				s.count++;
+			}
+		}
+	}
+
+	/**
+	 * Counts the clusters of every remaining tree of an iterator.
+	 * @param it Iterator over post processed trees, such as a TreeIterator.
+	 */
+	public void addAll(Iterator it) {
+		while (it.hasNext())
+			add((Tree) it.next());
+	}
+
+	/**
+	 * Taxa of a cluster, for unrooted trees the side without taxon 0.
+	 * @param t Tree.
+	 * @param node Node of the cluster.
+	 * @param splits Splits of t, for taxon numbers.
+	 * @return Bitset over the taxa.
+	 */
+	private long[] bits(Tree t, TreeNode node, TreeSplits splits) {
+		long[] bits = new long[(taxa.length + 63) >>> 6];
+		for (int i = node.getMinLeafIndex(); i <= node.getMaxLeafIndex(); i++) {
+			int taxon = splits.getTaxonIndex(t.getLeaf(i).getName());
+			bits[taxon >>> 6] |= 1L << taxon;
+		}
+		if (!rooted && (bits[0] & 1L) != 0) {
+			for (int w = 0; w < bits.length; w++)
+				bits[w] = ~bits[w];
+			if ((taxa.length & 63) != 0)
+				bits[bits.length - 1] &= (1L << taxa.length) - 1;
+		}
+		return bits;
+	}
+
+	/**
+	 * Table slot for a fingerprint.
+	 * @param high Fingerprint high word.
+	 * @param low Fingerprint low word.
+	 * @return Slot holding the cluster or the empty slot where it goes.
+	 */
+	private int slot(long high, long low) {
+		int mask = table.length - 1;
+		int i = (int) (high ^ (high >>> 32)) & mask;
+		while (table[i] != null && (table[i].high != high || table[i].low != low))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Finds a counted cluster.
+	 * @param high Fingerprint high word.
+	 * @param low Fingerprint low word.
+	 * @return The cluster, null if not in the table.
+	 */
+	private Split find(long high, long low) {
+		return table[slot(high, low)];
+	}
+
+	/**
+	 * Adds a cluster, pruning or growing the table when it is half full.
+	 * @param s New cluster.
+	 */
+	private void insert(Split s) {
+		if (2 * (size + 1) > table.length) {
+			prune();
+			if (4 * (size + 1) > table.length)
+				rehash(table.length * 2);
+		}
+		table[slot(s.high, s.low)] = s;
+		size++;
+	}
+
+	/**
+	 * Drops clusters that can't reach the majority threshold even if they are in all
+	 * remaining trees.  Does nothing without an expected tree count or for greedy consensus.
+	 */
+	private void prune() {
+		if (expectedTrees <= 0 || greedy)
+			return;
+		int remaining = expectedTrees - trees;
+		int before = size;
+		for (int i = 0; i < table.length; i++) {
+			Split s = table[i];
+			// a cluster in the current tree may still be counted by it
+			int possible = s == null ? 0 : s.count + remaining + (s.lastTree == trees ? 0 : 1);
+			if (s != null && possible <= threshold * expectedTrees) {
+				table[i] = null;
+				size--;
+			}
+		}
+		if (size != before)
+			rehash(table.length);
+	}
+
+	/**
+	 * Rebuilds the table.
+	 * @param capacity New capacity, a power of two.
+	 */
+	private void rehash(int capacity) {
+		Split[] old = table;
+		table = new Split[capacity];
+		for (int i = 0; i < old.length; i++)
+			if (old[i] != null)
+				table[slot(old[i].high, old[i].low)] = old[i];
+	}
+
+	/**
+	 * Builds the consensus of the trees added so far.
+	 * @param name File name for the consensus tree.
+	 * @return Post processed consensus tree, null if no tree was added.
+	 */
+	public Tree build(String name) {
+		if (taxa == null)
+			return null;
+		ArrayList chosen = new ArrayList();
+		for (int i = 0; i < table.length; i++)
+			if (table[i] != null && (greedy || table[i].count > threshold * trees))
+				chosen.add(table[i]);
+		if (greedy) {
+			// by support, then larger clusters first, then fingerprint for a deterministic order
+			Collections.sort(chosen, new Comparator() {
+				public int compare(Object o1, Object o2) {
+					Split a = (Split) o1, b = (Split) o2;
+					if (a.count != b.count)
+						return b.count - a.count;
+					if (a.taxa != b.taxa)
+						return b.taxa - a.taxa;
+					if (a.high != b.high)
+						return Long.compareUnsigned(a.high, b.high);
+					return Long.compareUnsigned(a.low, b.low);
+				}
+			});
+			ArrayList compatible = new ArrayList();
+			int maxClusters = taxa.length - (rooted ? 2 : 3);
+			for (int i = 0; i < chosen.size() && compatible.size() < maxClusters; i++) {
+				Split s = (Split) chosen.get(i);
+				boolean ok = true;
+				for (int j = 0; ok && j < compatible.size(); j++)
+					ok = isCompatible(s.bits, ((Split) compatible.get(j)).bits);
+				if (ok)
+					compatible.add(s);
+			}
+			chosen = compatible;
+		}
+		return makeTree(chosen, name);
+	}
+
+	/**
+	 * Tests if two clusters can be in one tree: nested or disjoint.
+	 * @param a First cluster.
+	 * @param b Second cluster.
+	 * @return True if compatible.
+	 */
+	private static boolean isCompatible(long[] a, long[] b) {
+		boolean aInB = true, bInA = true, disjoint = true;
+		for (int w = 0; w < a.length; w++) {
+			if ((a[w] & ~b[w]) != 0)
+				aInB = false;
+			if ((b[w] & ~a[w]) != 0)
+				bInA = false;
+			if ((a[w] & b[w]) != 0)
+				disjoint = false;
+		}
+		return aInB || bInA || disjoint;
+	}
+
+	/**
+	 * Builds a tree from compatible clusters.  Clusters are inserted from the largest, each
+	 * below the smallest inserted cluster holding its taxa.
+	 * @param clusters Compatible clusters.
+	 * @param name File name of the tree.
+	 * @return Post processed tree.
+	 */
+	private Tree makeTree(ArrayList clusters, String name) {
+		Collections.sort(clusters, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return ((Split) o2).taxa - ((Split) o1).taxa;
+			}
+		});
+		Tree t = new Tree();
+		TreeNode root = t.getRoot();
+		ArrayList created = new ArrayList();
+		created.add(root);
+		// deepest node so far holding each taxon
+		TreeNode[] holder = new TreeNode[taxa.length];
+		Arrays.fill(holder, root);
+		for (int i = 0; i < clusters.size(); i++) {
+			Split s = (Split) clusters.get(i);
+			TreeNode node = new TreeNode();
+			setSupport(node, (float) s.count / trees);
+			TreeNode parent = null;
+			for (int w = 0; w < s.bits.length; w++)
+				for (long word = s.bits[w]; word != 0; word &= word - 1) {
+					int taxon = (w << 6) + Long.numberOfTrailingZeros(word);
+					parent = holder[taxon];
+					holder[taxon] = node;
+				}
+			parent.addChild(node);
+			created.add(node);
+		}
+		for (int i = 0; i < taxa.length; i++) {
+			TreeNode leaf = new TreeNode();
+			leaf.setName(taxa[i]);
+			leaf.label = taxa[i];
+			if (!supportAsLabels)
+				leaf.setWeight(1.0);
+			holder[i].addChild(leaf);
+			created.add(leaf);
+		}
+		// parents were created before their children, link bottom up as the parser does,
+		// first putting children in taxon order so equal consensus trees are drawn alike
+		final int[] firstTaxon = new int[created.size()];
+		for (int i = created.size() - 1; i >= 0; i--) {
+			TreeNode n = (TreeNode) created.get(i);
+			n.key = i; // creation index until post processing numbers the nodes
+			if (n.isLeaf())
+				firstTaxon[i] = i - (created.size() - taxa.length);
+			else {
+				if (n.numberChildren() > 1)
+					Collections.sort(n.children, new Comparator() {
+						public int compare(Object o1, Object o2) {
+							return firstTaxon[((TreeNode) o1).key] - firstTaxon[((TreeNode) o2).key];
+						}
+					});
+				firstTaxon[i] = firstTaxon[n.firstChild().key];
+			}
+			n.setExtremeLeaves();
+			n.setNumberLeaves();
+			n.linkNodesInPreorder();
+			n.linkNodesInPostorder();
+		}
+		t.setFileName(name);
+		t.postProcess();
+		return t;
+	}
+
+	/**
+	 * Stores the support of an internal node.
+	 * @param n Node.
+	 * @param support Fraction of trees with the node's cluster.
+	 */
+	private void setSupport(TreeNode n, float support) {
+		if (supportAsLabels) {
+			String s = Float.toString(support);
+			n.setName(s);
+			n.label = s;
+		}
+		else
+			n.setWeight(support);
+	}
+}
@@ -0,0 +1,224 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+/**
+ * Constant time lowest common ancestor queries on a post processed {@link Tree}.
+ *
+ * Keys are a preorder numbering, so for keys u &lt; v the lowest common ancestor is the
+ * parent of a shallowest node among keys u+1 .. v.  The index answers that range minimum
+ * query over node depths in O(1): the keys are cut into blocks of 32, a sparse table
+ * holds the shallowest node of every power of two run of blocks, and within a block a
+ * 32 bit mask per key records the stack of suffix minima ending at that key.  Everything
+ * is kept in int arrays, about 3n ints plus (n/32) log(n/32) for the sparse table.
+ *
+ * The index is a snapshot of the tree when it was built.
+ *
+ * @see Tree#getLcaIndex()
+ */
+public class LcaIndex {
+
+	/** log2 of the block size. */
+	private static final int blockShift = 5;
+	/** Keys per block, one bit each in a mask. */
+	private static final int blockSize = 1 << blockShift;
+
+	/** Tree the index was built for, null if built from arrays. */
+	private Tree tree;
+	/** Parent key by key, -1 for the root. */
+	private int[] parent;
+	/** Depth by key, the root is 1 as for {@link TreeNode#height}. */
+	private int[] depth;
+	/** In-block stack of suffix minima ending at each key, bit i for the i(th) key of the block. */
+	private int[] mask;
+	/** sparse[k][b] is the shallowest key in blocks b .. b + 2^k - 1. */
+	private int[][] sparse;
+
+	/**
+	 * Builds the index for a tree.  Depths come from the parent keys, not from
+	 * {@link TreeNode#height}, so only the {@link Tree#KEYS} stage is needed.
+	 * @param t Post processed tree, with keys in preorder.
+	 */
+	public LcaIndex(Tree t) {
+		int n = t.getTotalNodeCount();
+		int[] parent = new int[n];
+		int[] depth = new int[n];
+		for (int k = 0; k < n; k++) {
+			TreeNode node = t.getNodeByKey(k);
+			parent[k] = (node.parent == null) ? -1 : node.parent.key;
+			// keys are preorder, so the parent's depth is already set
+			depth[k] = (parent[k] < 0) ? 1 : depth[parent[k]] + 1;
+		}
+		tree = t;
+		build(parent, depth);
+	}
+
+	/**
+	 * Builds the index from parent and depth arrays, which are kept, not copied.
+	 * @param parent Parent key by preorder key, -1 for the root.
+	 * @param depth Depth by key.
+	 */
+	LcaIndex(int[] parent, int[] depth) {
+		build(parent, depth);
+	}
+
+	/**
+	 * Fills the block masks and the sparse table.
+	 * @param parent Parent key by key.
+	 * @param depth Depth by key.
+	 */
+	private void build(int[] parent, int[] depth) {
+		this.parent = parent;
+		this.depth = depth;
+		int n = depth.length;
+		mask = new int[n];
+		int blocks = (n + blockSize - 1) >> blockShift;
+		int[] blockMin = new int[blocks];
+		for (int b = 0; b < blocks; b++) {
+			int start = b << blockShift;
+			int end = Math.min(start + blockSize, n);
+			int stack = 0;
+			for (int i = start; i < end; i++) {
+				// pop deeper keys, the top of the stack is its highest bit
+				while (stack != 0 && depth[start + 31 - Integer.numberOfLeadingZeros(stack)] > depth[i])
+					stack ^= Integer.highestOneBit(stack);
+				stack |= 1 << (i - start);
+				mask[i] = stack;
+			}
+			// the bottom of the final stack is the block minimum
+			blockMin[b] = start + Integer.numberOfTrailingZeros(mask[end - 1]);
+		}
+		int levels = 1;
+		while ((1 << levels) <= blocks)
+			levels++;
+		sparse = new int[levels][];
+		sparse[0] = blockMin;
+		for (int k = 1; k < levels; k++) {
+			int[] prev = sparse[k - 1];
+			int half = 1 << (k - 1);
+			int[] level = new int[blocks - (1 << k) + 1];
+			for (int b = 0; b < level.length; b++)
+				level[b] = shallower(prev[b], prev[b + half]);
+			sparse[k] = level;
+		}
+	}
+
+	/**
+	 * Returns the shallower of two keys, the first on ties.
+	 * @param a First key.
+	 * @param b Second key.
+	 * @return a or b.
+	 */
+	private int shallower(int a, int b) {
+		return (depth[b] < depth[a]) ? b : a;
+	}
+
+	/**
+	 * Shallowest key in a range within one block.
+	 * @param l First key.
+	 * @param r Last key, in the same block as l.
+	 * @return Shallowest key.
+	 */
+	private int inBlock(int l, int r) {
+		int m = mask[r] & (-1 << (l & (blockSize - 1)));
+		return (r & -blockSize) + Integer.numberOfTrailingZeros(m);
+	}
+
+	/**
+	 * Shallowest key in a range.
+	 * @param l First key.
+	 * @param r Last key, l &lt;= r.
+	 * @return Shallowest key.
+	 */
+	private int shallowest(int l, int r) {
+		int bl = l >> blockShift;
+		int br = r >> blockShift;
+		if (bl == br)
+			return inBlock(l, r);
+		int best = shallower(inBlock(l, (bl << blockShift) + blockSize - 1), inBlock(br << blockShift, r));
+		if (br - bl > 1) {
+			int from = bl + 1, to = br - 1;
+			int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+			best = shallower(best, shallower(sparse[k][from], sparse[k][to - (1 << k) + 1]));
+		}
+		return best;
+	}
+
+	/**
+	 * Lowest common ancestor of two nodes.
+	 * @param a Key of the first node.
+	 * @param b Key of the second node.
+	 * @return Key of the deepest node that has both nodes in its subtree.
+	 */
+	public int lca(int a, int b) {
+		if (a == b)
+			return a;
+		if (a > b) {
+			int t = a;
+			a = b;
+			b = t;
+		}
+		return parent[shallowest(a + 1, b)];
+	}
+
+	/**
+	 * Lowest common ancestor of two nodes.
+	 * @param a First node.
+	 * @param b Second node.
+	 * @return Deepest node that has both nodes in its subtree.
+	 */
+	public TreeNode lca(TreeNode a, TreeNode b) {
+		return tree.getNodeByKey(lca(a.key, b.key));
+	}
+
+	/**
+	 * Lowest common ancestors of pairs of nodes.
+	 * @param as Keys of the first nodes.
+	 * @param bs Keys of the second nodes, same length as as.
+	 * @return lca(as[i], bs[i]) for each i.
+	 */
+	public int[] lca(int[] as, int[] bs) {
+		int[] result = new int[as.length];
+		lca(as, bs, result);
+		return result;
+	}
+
+	/**
+	 * Lowest common ancestors of pairs of nodes, into a given array.
+	 * @param as Keys of the first nodes.
+	 * @param bs Keys of the second nodes.
+	 * @param result Receives lca(as[i], bs[i]) for i below as.length.
+	 */
+	public void lca(int[] as, int[] bs, int[] result) {
+		if (bs.length < as.length || result.length < as.length)
+			throw new IllegalArgumentException("Key arrays differ in length");
+		for (int i = 0; i < as.length; i++)
+			result[i] = lca(as[i], bs[i]);
+	}
+
+	/**
+	 * Depth of a node.
+	 * @param key Node key.
+	 * @return Depth, 1 for the root.
+	 */
+	public int getDepth(int key) {
+		return depth[key];
+	}
+
+	/**
+	 * Number of nodes indexed.
+	 * @return Node count.
+	 */
+	public int size() {
+		return depth.length;
+	}
+
+	/**
+	 * Approximate heap use of the index arrays, for capacity planning.
+	 * @return Bytes used by the arrays, without object headers.
+	 */
+	public long memoryBytes() {
+		long ints = (long) parent.length + depth.length + mask.length;
+		for (int k = 0; k < sparse.length; k++)
+			ints += sparse[k].length;
+		return ints * 4;
+	}
+}
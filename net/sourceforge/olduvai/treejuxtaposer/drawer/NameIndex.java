@@ -0,0 +1,370 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.util.Arrays;
+
+/**
+ * Prefix, substring and exact search over the node names of a tree, with or without
+ * case.  Built by {@link Tree#getNameIndex()} on the first search.
+ *
+ * The names, after duplicate leaf renaming, are lower cased character by character
+ * and joined with a separator that sorts before every other character.  A suffix
+ * array holds the start of every suffix of every name, sorted by multikey quicksort
+ * up to the end of its name; a second array holds the names in sorted order.  A query
+ * is two binary searches for the range of suffixes (or names) starting with it, then
+ * the owners of the range are collected.  Case sensitive queries search the lower
+ * cased text and check the hits against the names.  Query time is O(|query| log n)
+ * plus the number of hits.  The index takes about 6 bytes per name character plus 8
+ * bytes per name.
+ *
+ * @see Tree#getNodeByName(String)
+ */
+public class NameIndex {
+
+	/** Matches names starting with the query. */
+	public static final int PREFIX = 0;
+	/** Matches names containing the query. */
+	public static final int SUBSTRING = 1;
+	/** Matches names equal to the query. */
+	public static final int EXACT = 2;
+
+	/** Separator after each name in {@link #text}. */
+	private static final char end = '\0';
+	/** Ranges at most this long are insertion sorted. */
+	private static final int insertionSortSize = 12;
+
+	/** Tree the index was built for. */
+	private Tree tree;
+	/** Lower cased names, each followed by {@link #end}. */
+	private char[] text;
+	/** Start of each name in {@link #text}, ascending. */
+	private int[] starts;
+	/** Key of the node of each name. */
+	private int[] keys;
+	/** Starts of all suffixes, sorted. */
+	private int[] suffixes;
+	/** Name numbers, sorted by name. */
+	private int[] sortedNames;
+
+	/**
+	 * Builds the index of the named nodes of a post processed tree.
+	 * @param t Tree to index.
+	 */
+	public NameIndex(Tree t) {
+		tree = t;
+		int n = t.getTotalNodeCount();
+		int names = 0;
+		int length = 0;
+		for (int k = 0; k < n; k++) {
+			String name = t.getNodeByKey(k).getName();
+			if (name != null && name.length() > 0) {
+				names++;
+				length += name.length() + 1;
+			}
+		}
+		text = new char[length];
+		starts = new int[names];
+		keys = new int[names];
+		suffixes = new int[length - names];
+		int at = 0, name = 0, suffix = 0;
+		for (int k = 0; k < n; k++) {
+			String s = t.getNodeByKey(k).getName();
+			if (s == null || s.length() == 0)
+				continue;
+			starts[name] = at;
+			keys[name++] = k;
+			for (int i = 0; i < s.length(); i++) {
+				char c = Character.toLowerCase(s.charAt(i));
+				text[at] = (c == end) ? ' ' : c;
+				suffixes[suffix++] = at++;
+			}
+			text[at++] = end;
+		}
+		sort(suffixes);
+		int[] nameStarts = starts.clone();
+		sort(nameStarts);
+		sortedNames = new int[names];
+		for (int i = 0; i < names; i++)
+			sortedNames[i] = nameOf(nameStarts[i]);
+	}
+
+	/**
+	 * Returns the indexed tree.
+	 * @return Tree whose keys queries return.
+	 */
+	public Tree getTree() {
+		return tree;
+	}
+
+	/**
+	 * Number of named nodes in the index.
+	 * @return Name count.
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Approximate memory used by the index.
+	 * @return Bytes.
+	 */
+	public long memoryBytes() {
+		return 2L * text.length + 4L * (starts.length + keys.length + suffixes.length + sortedNames.length);
+	}
+
+	/**
+	 * Finds the nodes whose names match a query.
+	 * @param query Text to look for.
+	 * @param mode {@link #PREFIX}, {@link #SUBSTRING} or {@link #EXACT}.
+	 * @param ignoreCase True to compare lower cased names and query.
+	 * @return Keys of the matching nodes, ascending.  An empty query matches every name
+	 * except in EXACT mode.
+	 * @throws IllegalArgumentException For an unknown mode.
+	 */
+	public int[] find(String query, int mode, boolean ignoreCase) {
+		if (mode != PREFIX && mode != SUBSTRING && mode != EXACT)
+			throw new IllegalArgumentException("Unknown search mode " + mode);
+		// exact matches are the prefix matches followed by the end of the name
+		char[] q = new char[query.length() + (mode == EXACT ? 1 : 0)];
+		for (int i = 0; i < query.length(); i++) {
+			char c = Character.toLowerCase(query.charAt(i));
+			q[i] = (c == end) ? ' ' : c;
+		}
+		if (mode == EXACT)
+			q[query.length()] = end;
+		boolean names = (mode != SUBSTRING);
+		int[] sorted = names ? sortedNames : suffixes;
+		int lo = lowerBound(sorted, q, names), hi = upperBound(sorted, q, names);
+		int[] hits = new int[hi - lo];
+		int count = 0;
+		for (int i = lo; i < hi; i++) {
+			int name = names ? sorted[i] : nameOf(sorted[i]);
+			int offset = names ? 0 : sorted[i] - starts[name];
+			if (ignoreCase || tree.getNodeByKey(keys[name]).getName().startsWith(query, offset))
+				hits[count++] = name;
+		}
+		count = sortUnique(hits, count);
+		// names are numbered in key order
+		int[] result = new int[count];
+		for (int i = 0; i < count; i++)
+			result[i] = keys[hits[i]];
+		return result;
+	}
+
+	/**
+	 * Sorts name numbers and drops repeats, which come from names holding a query more
+	 * than once.  Large sets are sorted through a bitset over all names.
+	 * @param hits Name numbers.
+	 * @param count Number of entries used.
+	 * @return Number of distinct names, at the start of hits.
+	 */
+	private int sortUnique(int[] hits, int count) {
+		if (count > keys.length >>> 6) {
+			long[] seen = new long[(keys.length + 63) >>> 6];
+			for (int i = 0; i < count; i++)
+				seen[hits[i] >>> 6] |= 1L << hits[i];
+			int unique = 0;
+			for (int w = 0; w < seen.length; w++)
+				for (long bits = seen[w]; bits != 0; bits &= bits - 1)
+					hits[unique++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+			return unique;
+		}
+		Arrays.sort(hits, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++)
+			if (unique == 0 || hits[unique - 1] != hits[i])
+				hits[unique++] = hits[i];
+		return unique;
+	}
+
+	/**
+	 * Finds the nodes whose names match a query.
+	 * @param query Text to look for.
+	 * @param mode {@link #PREFIX}, {@link #SUBSTRING} or {@link #EXACT}.
+	 * @param ignoreCase True to compare lower cased names and query.
+	 * @return Matching nodes, in key order.
+	 */
+	public TreeNode[] findNodes(String query, int mode, boolean ignoreCase) {
+		int[] found = find(query, mode, ignoreCase);
+		TreeNode[] nodes = new TreeNode[found.length];
+		for (int i = 0; i < found.length; i++)
+			nodes[i] = tree.getNodeByKey(found[i]);
+		return nodes;
+	}
+
+	/**
+	 * Number of the name a text position belongs to.
+	 * @param position Position in {@link #text}.
+	 * @return Index into {@link #starts}.
+	 */
+	private int nameOf(int position) {
+		int i = Arrays.binarySearch(starts, position);
+		return (i >= 0) ? i : -i - 2;
+	}
+
+	/**
+	 * Compares the suffix at a position with a query, up to the length of the query.
+	 * @param position Start of the suffix in {@link #text}.
+	 * @param q Lower cased query.
+	 * @return Negative if the suffix sorts before the query, 0 if it starts with it, positive otherwise.
+	 */
+	private int compare(int position, char[] q) {
+		for (int i = 0; i < q.length; i++) {
+			char c = text[position + i];
+			if (c != q[i])
+				return (c < q[i]) ? -1 : 1;
+			if (c == end)
+				return 0; // only the last character of an exact query
+		}
+		return 0;
+	}
+
+	/**
+	 * First entry not sorting before a query.
+	 * @param sorted Sorted suffix starts, or sorted name numbers.
+	 * @param q Lower cased query.
+	 * @param names True if sorted holds name numbers.
+	 * @return Position in sorted.
+	 */
+	private int lowerBound(int[] sorted, char[] q, boolean names) {
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(names ? starts[sorted[mid]] : sorted[mid], q) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * First entry sorting after a query and not starting with it.
+	 * @param sorted Sorted suffix starts, or sorted name numbers.
+	 * @param q Lower cased query.
+	 * @param names True if sorted holds name numbers.
+	 * @return Position in sorted.
+	 */
+	private int upperBound(int[] sorted, char[] q, boolean names) {
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(names ? starts[sorted[mid]] : sorted[mid], q) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Sorts suffix starts by the text up to the end of their names, with an iterative
+	 * multikey quicksort: ranges are split three ways on the character at the current
+	 * depth, and only the middle part moves on to the next character.
+	 * @param a Suffix starts.
+	 */
+	private void sort(int[] a) {
+		int[] stack = new int[96];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = a.length - 1;
+		stack[top++] = 0;
+		while (top > 0) {
+			int depth = stack[--top];
+			int hi = stack[--top];
+			int lo = stack[--top];
+			if (hi - lo < insertionSortSize) {
+				insertionSort(a, lo, hi, depth);
+				continue;
+			}
+			int pivot = median(text[a[lo] + depth], text[a[(lo + hi) >>> 1] + depth], text[a[hi] + depth]);
+			// a[lo..lt-1] < pivot, a[lt..i-1] == pivot, a[gt+1..hi] > pivot
+			int lt = lo, i = lo, gt = hi;
+			while (i <= gt) {
+				char c = text[a[i] + depth];
+				if (c < pivot)
+					swap(a, lt++, i++);
+				else if (c > pivot)
+					swap(a, i, gt--);
+				else
+					i++;
+			}
+			if (top + 9 > stack.length) {
+				int[] bigger = new int[stack.length * 2];
+				System.arraycopy(stack, 0, bigger, 0, top);
+				stack = bigger;
+			}
+			stack[top++] = lo;
+			stack[top++] = lt - 1;
+			stack[top++] = depth;
+			stack[top++] = gt + 1;
+			stack[top++] = hi;
+			stack[top++] = depth;
+			if (pivot != end) {
+				stack[top++] = lt;
+				stack[top++] = gt;
+				stack[top++] = depth + 1;
+			}
+		}
+	}
+
+	/**
+	 * Insertion sort of a small range whose suffixes agree on their first depth characters.
+	 * @param a Suffix starts.
+	 * @param lo First index.
+	 * @param hi Last index.
+	 * @param depth Characters known to be equal.
+	 */
+	private void insertionSort(int[] a, int lo, int hi, int depth) {
+		for (int i = lo + 1; i <= hi; i++) {
+			int v = a[i];
+			int j = i - 1;
+			while (j >= lo && greater(a[j], v, depth)) {
+				a[j + 1] = a[j];
+				j--;
+			}
+			a[j + 1] = v;
+		}
+	}
+
+	/**
+	 * Compares two suffixes from a depth up to the end of their names.
+	 * @param x First suffix start.
+	 * @param y Second suffix start.
+	 * @param depth Characters known to be equal.
+	 * @return True if x sorts after y.
+	 */
+	private boolean greater(int x, int y, int depth) {
+		for (int i = depth; ; i++) {
+			char cx = text[x + i], cy = text[y + i];
+			if (cx != cy)
+				return cx > cy;
+			if (cx == end)
+				return false;
+		}
+	}
+
+	/**
+	 * Median of three characters.
+	 * @param a First.
+	 * @param b Second.
+	 * @param c Third.
+	 * @return The middle one.
+	 */
+	private static char median(char a, char b, char c) {
+		if (a < b)
+			return (b < c) ? b : (a < c ? c : a);
+		return (a < c) ? a : (b < c ? c : b);
+	}
+
+	/**
+	 * Swaps two entries.
+	 * @param a Array.
+	 * @param i First index.
+	 * @param j Second index.
+	 */
+	private static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
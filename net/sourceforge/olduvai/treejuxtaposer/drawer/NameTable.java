@@ -0,0 +1,210 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.util.Arrays;
+
+/**
+ * Map from node names to nodes with open addressing, the name lookup table of a
+ * {@link Tree}.  Unlike a HashMap it creates no entry objects, and {@link #clear()}
+ * keeps the arrays, so a tree that is post processed again or recycled by the parser
+ * fills the same table.  Tables made with counters have two per slot, which
+ * {@link Tree#postProcess()} uses to number duplicate leaf names.
+ *
+ * @see Tree#getNodeByName(String)
+ */
+final class NameTable {
+
+	/** Names by slot, null for empty slots.  The length is a power of two. */
+	private String[] names;
+	/** Nodes by slot. */
+	private TreeNode[] nodes;
+	/** First counter by slot, null for tables without counters. */
+	private int[] counts;
+	/** Second counter by slot, null for tables without counters. */
+	private int[] next;
+	/** Number of names in the table. */
+	private int size = 0;
+
+	/**
+	 * Empty table.
+	 * @param expected Number of names expected, the table grows past it if needed.
+	 * @param withCounters True to keep two counters per name.
+	 */
+	NameTable(int expected, boolean withCounters) {
+		int capacity = 16;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		if (withCounters)
+			counts = next = new int[0];
+		allocate(capacity);
+	}
+
+	/**
+	 * Copy of a table.
+	 * @param other Table to copy.
+	 */
+	NameTable(NameTable other) {
+		names = other.names.clone();
+		nodes = other.nodes.clone();
+		if (other.counts != null) {
+			counts = other.counts.clone();
+			next = other.next.clone();
+		}
+		size = other.size;
+	}
+
+	/**
+	 * Allocates empty arrays.
+	 * @param capacity Number of slots, a power of two.
+	 */
+	private void allocate(int capacity) {
+		names = new String[capacity];
+		nodes = new TreeNode[capacity];
+		if (counts != null) {
+			counts = new int[capacity];
+			next = new int[capacity];
+		}
+	}
+
+	/**
+	 * Returns the number of names in the table.
+	 * @return Name count.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Makes room for a number of names without growing during the inserts.
+	 * An empty table that is too large for them is shrunk, so a recycled
+	 * tree doesn't keep the table of a much larger tree.
+	 * @param expected Number of names about to be added.
+	 */
+	void ensureCapacity(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		if (capacity > names.length || (size == 0 && capacity * 4 < names.length))
+			rehash(capacity);
+	}
+
+	/**
+	 * Removes all names, keeping the arrays.
+	 */
+	void clear() {
+		if (size == 0)
+			return;
+		Arrays.fill(names, null);
+		Arrays.fill(nodes, null);
+		size = 0;
+	}
+
+	/**
+	 * Finds the slot of a name, or the empty slot where it would go.
+	 * @param s Name to look for, not null.
+	 * @return Slot index.
+	 */
+	private int slot(String s) {
+		int mask = names.length - 1;
+		int h = s.hashCode();
+		int i = (h ^ (h >>> 16)) & mask;
+		String found;
+		while ((found = names[i]) != null && found != s && !found.equals(s))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Returns the node stored under a name.
+	 * @param s Name to look up.
+	 * @return The node, or null if the name isn't in the table.
+	 */
+	TreeNode get(String s) {
+		if (s == null)
+			return null;
+		return nodes[slot(s)];
+	}
+
+	/**
+	 * Stores a node under a name, replacing the node stored before.
+	 * @param s Name, not null.
+	 * @param n Node.
+	 */
+	void put(String s, TreeNode n) {
+		int i = add(s); // before reading nodes, add may grow it
+		nodes[i] = n;
+	}
+
+	/**
+	 * Adds a name if it isn't in the table yet, with no node and zero counters.
+	 * @param s Name, not null.
+	 * @return Slot of the name, valid until the next name is added.
+	 */
+	int add(String s) {
+		int i = slot(s);
+		if (names[i] == null) {
+			if ((size + 1) * 2 > names.length) {
+				rehash(names.length * 2);
+				i = slot(s);
+			}
+			names[i] = s;
+			nodes[i] = null;
+			if (counts != null) {
+				counts[i] = 0;
+				next[i] = 0;
+			}
+			size++;
+		}
+		return i;
+	}
+
+	/**
+	 * Increments the first counter of a slot.
+	 * Only for tables with counters.
+	 * @param slot Slot returned by {@link #add(String)}.
+	 * @return The new count.
+	 */
+	int count(int slot) {
+		return ++counts[slot];
+	}
+
+	/**
+	 * Returns the first counter of a slot.
+	 * @param slot Slot returned by {@link #add(String)}.
+	 * @return The count.
+	 */
+	int getCount(int slot) {
+		return counts[slot];
+	}
+
+	/**
+	 * Returns the second counter of a slot and increments it.
+	 * @param slot Slot returned by {@link #add(String)}.
+	 * @return Value before the increment.
+	 */
+	int next(int slot) {
+		return next[slot]++;
+	}
+
+	/**
+	 * Moves the names to arrays of a new size.
+	 * @param capacity New number of slots, a power of two larger than twice {@link #size}.
+	 */
+	private void rehash(int capacity) {
+		String[] oldNames = names;
+		TreeNode[] oldNodes = nodes;
+		int[] oldCounts = counts;
+		int[] oldNext = next;
+		allocate(capacity);
+		for (int j = 0; j < oldNames.length; j++) {
+			if (oldNames[j] == null)
+				continue;
+			int i = slot(oldNames[j]);
+			names[i] = oldNames[j];
+			nodes[i] = oldNodes[j];
+			if (counts != null) {
+				counts[i] = oldCounts[j];
+				next[i] = oldNext[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Postorder pass over a post processed subtree, with large subtrees visited in parallel
+ * on the common fork-join pool.  Small subtrees follow the {@link TreeNode#posorderNext}
+ * links.  A task follows the path of largest children itself and forks the other large
+ * children, so tasks nest only logarithmically deep even in caterpillar trees.
+ */
+abstract class ParallelPostorder {
+
+	/** Subtrees with fewer nodes than this are visited on the calling thread. */
+	static final int parallelThreshold = 1 << 14;
+
+	/**
+	 * Visits a node after all of its children.  Nodes in disjoint subtrees may be visited
+	 * at the same time by different threads.
+	 * @param n Node to visit.
+	 */
+	abstract void visit(TreeNode n);
+
+	/**
+	 * Visits every node of a subtree in postorder and waits for the pass to finish.
+	 * @param root Root of the subtree.
+	 */
+	void run(TreeNode root) {
+		new Task(root).invoke();
+	}
+
+	/**
+	 * Visits one subtree.
+	 */
+	private class Task extends RecursiveAction {
+		/** Serialization version. */
+		private static final long serialVersionUID = 1L;
+
+		/** Root of the subtree. */
+		private TreeNode node;
+
+		/**
+		 * Task for a subtree.
+		 * @param node Root of the subtree.
+		 */
+		Task(TreeNode node) {
+			this.node = node;
+		}
+
+		/** Visits the subtree, in parallel if it is large. */
+		protected void compute() {
+			ArrayList path = new ArrayList();
+			ArrayList forked = new ArrayList();
+			TreeNode n = node;
+			while (size(n) >= parallelThreshold) {
+				path.add(n);
+				TreeNode heavy = n.firstChild();
+				for (int i = 1; i < n.numberChildren(); i++)
+					if (size(n.getChild(i)) > size(heavy))
+						heavy = n.getChild(i);
+				for (int i = 0; i < n.numberChildren(); i++) {
+					TreeNode child = n.getChild(i);
+					if (child == heavy)
+						continue;
+					if (size(child) >= parallelThreshold) {
+						Task task = new Task(child);
+						task.fork();
+						forked.add(task);
+					}
+					else
+						visitSubtree(child);
+				}
+				n = heavy;
+			}
+			visitSubtree(n);
+			for (int i = 0; i < forked.size(); i++)
+				((Task) forked.get(i)).join();
+			for (int i = path.size() - 1; i >= 0; i--)
+				visit((TreeNode) path.get(i));
+		}
+	}
+
+	/**
+	 * Number of nodes in a subtree.
+	 * @param n Root of the subtree.
+	 * @return Node count.
+	 */
+	static int size(TreeNode n) {
+		return n.getMax() - n.key + 1;
+	}
+
+	/**
+	 * Visits a subtree on the calling thread.
+	 * @param root Root of the subtree.
+	 */
+	private void visitSubtree(TreeNode root) {
+		for (TreeNode n = root.leftmostLeaf; ; n = n.posorderNext) {
+			visit(n);
+			if (n == root)
+				break;
+		}
+	}
+}
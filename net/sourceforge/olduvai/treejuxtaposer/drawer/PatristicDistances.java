@@ -0,0 +1,166 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Patristic distances, the sum of the edge weights on the path between two nodes of
+ * a tree, from the root distances of {@link Tree#getRootDistances()}: the distance of
+ * a and b is d(a) + d(b) - 2 d(lca(a, b)).
+ *
+ * Single pairs use the tree's {@link LcaIndex}.  The all-pairs leaf matrix needs no
+ * LCA queries: walking up from leaf i, the leaves after i below each ancestor that
+ * were not below the previous one have that ancestor as their LCA with i, so each
+ * row costs its length plus the depth of the leaf.  Blocks of rows are computed on
+ * several threads and stored, like {@link RobinsonFoulds#distanceMatrix(List, boolean, int)},
+ * as a condensed matrix in memory or in a memory mapped file.  Rows and columns are
+ * leaf indices, see {@link Tree#getLeaf(int)}.
+ */
+public class PatristicDistances {
+
+	/** Number of matrix values computed by one task. */
+	private static final int blockValues = 1 << 20;
+
+	/** Not instantiated, all methods are static. */
+	private PatristicDistances() {
+	}
+
+	/**
+	 * Patristic distance between two nodes.
+	 * @param t Post processed tree.
+	 * @param a First node of t.
+	 * @param b Second node of t.
+	 * @return Sum of the edge weights on the path from a to b.
+	 */
+	public static double distance(Tree t, TreeNode a, TreeNode b) {
+		double[] d = t.getRootDistances();
+		return d[a.key] + d[b.key] - 2 * d[t.getLcaIndex().lca(a.key, b.key)];
+	}
+
+	/**
+	 * Distances between all pairs of leaves, in a condensed matrix held in memory.
+	 * @param t Post processed tree.
+	 * @param threads Number of threads.
+	 * @return Distances in {@link RobinsonFoulds#condensedIndex(int, int, int)} order of leaf indices.
+	 * @throws IllegalArgumentException If there are too many leaves for an array.
+	 */
+	public static float[] distanceMatrix(Tree t, int threads) {
+		int n = t.getLeafCount();
+		if (n < 2)
+			return new float[0];
+		long size = RobinsonFoulds.condensedIndex(n - 2, n - 1, n) + 1;
+		if (size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many leaves for an array, use a matrix file");
+		final float[] matrix = new float[(int) size];
+		try {
+			fillMatrix(t, threads, new RobinsonFoulds.RowWriter() {
+				public void write(int row, long offset, float[] values, int count) {
+					System.arraycopy(values, 0, matrix, (int) offset, count);
+				}
+			});
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e); // not thrown by arrays
+		}
+		return matrix;
+	}
+
+	/**
+	 * Distances between all pairs of leaves, written as a condensed matrix of little endian
+	 * floats to a memory mapped file.  Each block of rows is mapped as it is finished, so the
+	 * matrix may be larger than memory: 100000 leaves take 20GB.
+	 * @param t Post processed tree.
+	 * @param threads Number of threads.
+	 * @param file File to create or replace.
+	 * @throws IOException If the file can't be written.
+	 */
+	public static void distanceMatrix(Tree t, int threads, Path file) throws IOException {
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			fillMatrix(t, threads, new RobinsonFoulds.RowWriter() {
+				public void write(int row, long offset, float[] values, int count) throws IOException {
+					FloatBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, offset * 4, (long) count * 4)
+						.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+					out.put(values, 0, count);
+				}
+			});
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Splits the rows into blocks of about {@link #blockValues} values and computes and
+	 * writes the blocks on a pool.  The rows of a block are consecutive in the condensed
+	 * matrix, so each block is written at once.
+	 * @param t Tree.
+	 * @param threads Number of threads.
+	 * @param writer Block destination.
+	 * @throws IOException If a block can't be written.
+	 */
+	private static void fillMatrix(final Tree t, int threads, final RobinsonFoulds.RowWriter writer)
+		throws IOException {
+		final int n = t.getLeafCount();
+		final double[] d = t.getRootDistances();
+		final double[] leafDistances = new double[n];
+		for (int i = 0; i < n; i++)
+			leafDistances[i] = d[t.getLeaf(i).key];
+
+		List tasks = new ArrayList();
+		int first = 0;
+		while (first < n - 1) {
+			int last = first;
+			long values = n - first - 1;
+			while (last + 1 < n - 1 && values + (n - last - 2) <= blockValues) {
+				last++;
+				values += n - last - 1;
+			}
+			final int from = first, to = last, count = (int) values;
+			tasks.add(new Callable() {
+				public Object call() throws IOException {
+					float[] block = new float[count];
+					int at = 0;
+					for (int row = from; row <= to; row++)
+						at = fillRow(t, row, d, leafDistances, block, at);
+					writer.write(from, RobinsonFoulds.condensedIndex(from, from + 1, n), block, count);
+					return null;
+				}
+			});
+			first = last + 1;
+		}
+		RobinsonFoulds.runAll(tasks, threads);
+	}
+
+	/**
+	 * Computes the distances from a leaf to the leaves after it.
+	 * @param t Tree.
+	 * @param row Leaf index.
+	 * @param d Root distances by key.
+	 * @param leafDistances Root distances by leaf index.
+	 * @param out Output.
+	 * @param at Position in out of the distance to leaf row + 1.
+	 * @return Position after the row.
+	 */
+	private static int fillRow(Tree t, int row, double[] d, double[] leafDistances, float[] out, int at) {
+		int n = leafDistances.length;
+		double rowDistance = leafDistances[row];
+		int done = row; // leaves up to here have a distance
+		for (TreeNode a = t.getLeaf(row).parent; done < n - 1; a = a.parent) {
+			int max = a.getMaxLeafIndex();
+			double lcaDistance = 2 * d[a.key];
+			for (int j = done + 1; j <= max; j++)
+				out[at++] = (float) (rowDistance + leafDistances[j] - lcaDistance);
+			done = max;
+		}
+		return at;
+	}
+}
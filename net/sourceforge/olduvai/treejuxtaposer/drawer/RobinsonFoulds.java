@@ -0,0 +1,441 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Robinson-Foulds distances between trees on the same leaf names: the number of
+ * clusters (rooted) or splits (unrooted) found in one tree but not the other.
+ * Leaves, the root cluster and, for unrooted trees, splits separating a single leaf
+ * are not counted.
+ *
+ * Two trees are compared in linear time.  Rooted distances use Day's algorithm: the
+ * clusters of the first tree are intervals of its leaf indices, and a cluster of the
+ * second tree is shared exactly when its leaves map to an interval of that size which
+ * is also a cluster of the first.  Unrooted distances compare the split fingerprints of
+ * {@link TreeSplits}.  For many trees, {@link #distanceMatrix(List, boolean, int)}
+ * fingerprints each tree once and merges sorted fingerprint lists for each pair, on
+ * several threads.
+ */
+public class RobinsonFoulds {
+
+	/** Not instantiated, all methods are static. */
+	private RobinsonFoulds() {
+	}
+
+	/**
+	 * Robinson-Foulds distance between two trees.
+	 * @param a First tree, post processed.
+	 * @param b Second tree, post processed, with the same leaf names as a.
+	 * @param rooted True to compare clusters, false to compare unrooted splits.
+	 * @return Number of clusters or splits in exactly one of the trees.
+	 * @throws IllegalArgumentException If the leaf names differ.
+	 */
+	public static int distance(Tree a, Tree b, boolean rooted) {
+		if (a.getLeafCount() != b.getLeafCount())
+			throw new IllegalArgumentException("Trees have different leaf counts");
+		if (!rooted) {
+			long[] pa = fingerprints(a, false);
+			long[] pb = fingerprints(b, false);
+			return pa.length / 2 + pb.length / 2 - 2 * common(pa, pb);
+		}
+
+		// clusters of a are intervals of its leaf indices
+		int leaves = a.getLeafCount();
+		PairSet clusters = new PairSet(a.getTotalNodeCount() - leaves);
+		for (int k = 0; k < a.getTotalNodeCount(); k++) {
+			TreeNode n = a.getNodeByKey(k);
+			if (isCluster(n, leaves))
+				clusters.add(n.getMinLeafIndex(), n.getMaxLeafIndex());
+		}
+		HashMap rank = new HashMap(leaves * 4 / 3 + 1);
+		for (int i = 0; i < leaves; i++)
+			rank.put(a.getLeaf(i).getName(), Integer.valueOf(i));
+
+		// leaf index range of a covered by each subtree of b, in postorder
+		int n = b.getTotalNodeCount();
+		int[] min = new int[n];
+		int[] max = new int[n];
+		PairSet matched = new PairSet(n - leaves);
+		int clustersB = 0;
+		TreeNode root = b.getRoot();
+		for (TreeNode node = root.leftmostLeaf; node != null; node = node.posorderNext) {
+			int k = node.key;
+			if (node.isLeaf()) {
+				Integer r = (Integer) rank.get(node.getName());
+				if (r == null)
+					throw new IllegalArgumentException("Leaf " + node.getName() + " is not in both trees");
+				min[k] = max[k] = r.intValue();
+			}
+			else {
+				min[k] = Integer.MAX_VALUE;
+				max[k] = -1;
+				for (int i = 0; i < node.numberChildren(); i++) {
+					int c = node.getChild(i).key;
+					min[k] = Math.min(min[k], min[c]);
+					max[k] = Math.max(max[k], max[c]);
+				}
+				if (isCluster(node, leaves)) {
+					clustersB++;
+					if (max[k] - min[k] + 1 == node.numberLeaves && clusters.contains(min[k], max[k]))
+						matched.add(min[k], max[k]);
+				}
+			}
+			if (node == root)
+				break;
+		}
+		return clusters.size() + clustersB - 2 * matched.size();
+	}
+
+	/**
+	 * Tests if a node defines a counted cluster: internal, not the whole leaf set, and not
+	 * the parent of a single child (which repeats the cluster of the child).
+	 * @param n Node.
+	 * @param leaves Leaves in the tree.
+	 * @return True if the cluster of n is counted.
+	 */
+	private static boolean isCluster(TreeNode n, int leaves) {
+		return n.numberChildren() > 1 && n.numberLeaves < leaves;
+	}
+
+	/**
+	 * Distinct counted splits of a tree as sorted fingerprints.
+	 * @param t Post processed tree.
+	 * @param rooted True for clusters, false for unrooted splits.
+	 * @return High and low fingerprint words interleaved, sorted as unsigned 128 bit numbers.
+	 */
+	static long[] fingerprints(Tree t, boolean rooted) {
+		TreeSplits splits = new TreeSplits(t, null, false);
+		int leaves = t.getLeafCount();
+		long[] prints = new long[2 * t.getTotalNodeCount()];
+		int count = 0;
+		for (int k = 0; k < t.getTotalNodeCount(); k++) {
+			TreeNode n = t.getNodeByKey(k);
+			if (!isCluster(n, leaves) || (!rooted && n.numberLeaves >= leaves - 1))
+				continue;
+			prints[count++] = splits.getFingerprintHigh(n, !rooted);
+			prints[count++] = splits.getFingerprintLow(n, !rooted);
+		}
+		sortPairs(prints, 0, count / 2 - 1);
+		// drop repeats, the two children of a binary root are one unrooted split
+		int distinct = 0;
+		for (int i = 0; i < count; i += 2)
+			if (distinct == 0 || prints[i] != prints[distinct - 2] || prints[i + 1] != prints[distinct - 1]) {
+				prints[distinct++] = prints[i];
+				prints[distinct++] = prints[i + 1];
+			}
+		long[] result = new long[distinct];
+		System.arraycopy(prints, 0, result, 0, distinct);
+		return result;
+	}
+
+	/**
+	 * Counts fingerprints in both sorted lists.
+	 * @param a Sorted distinct fingerprints.
+	 * @param b Sorted distinct fingerprints.
+	 * @return Number of shared fingerprints.
+	 */
+	static int common(long[] a, long[] b) {
+		int i = 0, j = 0, shared = 0;
+		while (i < a.length && j < b.length) {
+			int c = compare(a, i, b, j);
+			if (c == 0) {
+				shared++;
+				i += 2;
+				j += 2;
+			}
+			else if (c < 0)
+				i += 2;
+			else
+				j += 2;
+		}
+		return shared;
+	}
+
+	/**
+	 * Compares two fingerprints as unsigned 128 bit numbers.
+	 * @param a Array holding the first fingerprint.
+	 * @param i Index of its high word.
+	 * @param b Array holding the second fingerprint.
+	 * @param j Index of its high word.
+	 * @return Negative, zero or positive.
+	 */
+	private static int compare(long[] a, int i, long[] b, int j) {
+		if (a[i] != b[j])
+			return Long.compareUnsigned(a[i], b[j]);
+		return Long.compareUnsigned(a[i + 1], b[j + 1]);
+	}
+
+	/**
+	 * Sorts interleaved fingerprints, quicksort on fingerprint numbers lo to hi inclusive.
+	 * Fingerprints are hash values, so the middle element is a good pivot.
+	 * @param a Interleaved fingerprints.
+	 * @param lo First fingerprint number.
+	 * @param hi Last fingerprint number.
+	 */
+	private static void sortPairs(long[] a, int lo, int hi) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			long[] pivot = { a[2 * mid], a[2 * mid + 1] };
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (compare(a, 2 * i, pivot, 0) < 0)
+					i++;
+				while (compare(a, 2 * j, pivot, 0) > 0)
+					j--;
+				if (i <= j) {
+					long t = a[2 * i];
+					a[2 * i] = a[2 * j];
+					a[2 * j] = t;
+					t = a[2 * i + 1];
+					a[2 * i + 1] = a[2 * j + 1];
+					a[2 * j + 1] = t;
+					i++;
+					j--;
+				}
+			}
+			// recurse on the smaller part to bound the stack
+			if (j - lo < hi - i) {
+				sortPairs(a, lo, j);
+				lo = i;
+			}
+			else {
+				sortPairs(a, i, hi);
+				hi = j;
+			}
+		}
+	}
+
+	/**
+	 * Position of a pair in a condensed distance matrix, the rows of the upper triangle
+	 * without the diagonal: (0,1), (0,2) .. (0,n-1), (1,2) ..
+	 * @param i Row, smaller than j.
+	 * @param j Column.
+	 * @param n Number of trees.
+	 * @return Index of the pair.
+	 */
+	public static long condensedIndex(int i, int j, int n) {
+		return (long) i * n - (long) i * (i + 1) / 2 + (j - i - 1);
+	}
+
+	/**
+	 * Distances between all pairs of trees, in a condensed matrix held in memory.
+	 * @param trees Post processed trees on the same leaf names.
+	 * @param rooted True to compare clusters, false to compare unrooted splits.
+	 * @param threads Number of threads.
+	 * @return Distances in {@link #condensedIndex(int, int, int)} order.
+	 * @throws IllegalArgumentException If there are too many trees for an array.
+	 */
+	public static float[] distanceMatrix(List trees, boolean rooted, int threads) {
+		int n = trees.size();
+		if (n < 2)
+			return new float[0];
+		long size = condensedIndex(n - 2, n - 1, n) + 1;
+		if (size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many trees for an array, use a matrix file");
+		final float[] matrix = new float[(int) size];
+		try {
+			fillMatrix(trees, rooted, threads, new RowWriter() {
+				public void write(int row, long offset, float[] values, int count) {
+					System.arraycopy(values, 0, matrix, (int) offset, count);
+				}
+			});
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e); // not thrown by arrays
+		}
+		return matrix;
+	}
+
+	/**
+	 * Distances between all pairs of trees, written as a condensed matrix of little endian
+	 * floats to a memory mapped file.  Each row is mapped as it is finished, so the matrix
+	 * may be larger than memory.
+	 * @param trees Post processed trees on the same leaf names.
+	 * @param rooted True to compare clusters, false to compare unrooted splits.
+	 * @param threads Number of threads.
+	 * @param file File to create or replace.
+	 * @throws IOException If the file can't be written.
+	 */
+	public static void distanceMatrix(List trees, boolean rooted, int threads, Path file) throws IOException {
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			fillMatrix(trees, rooted, threads, new RowWriter() {
+				public void write(int row, long offset, float[] values, int count) throws IOException {
+					FloatBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, offset * 4, (long) count * 4)
+						.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+					out.put(values, 0, count);
+				}
+			});
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/** Destination of finished matrix rows, also used by {@link PatristicDistances}. */
+	interface RowWriter {
+		/**
+		 * Stores one row of the condensed matrix.  Called from several threads, for different rows.
+		 * @param row Row number.
+		 * @param offset Condensed index of the first value.
+		 * @param values Distances to the trees after the row.
+		 * @param count Number of values.
+		 * @throws IOException On write errors.
+		 */
+		void write(int row, long offset, float[] values, int count) throws IOException;
+	}
+
+	/**
+	 * Fingerprints every tree, then computes and writes the rows of the matrix on a pool.
+	 * @param trees Trees to compare.
+	 * @param rooted True for clusters.
+	 * @param threads Number of threads.
+	 * @param writer Row destination.
+	 * @throws IOException If a row can't be written.
+	 */
+	private static void fillMatrix(List trees, final boolean rooted, int threads, final RowWriter writer)
+		throws IOException {
+		final int n = trees.size();
+		final long[][] prints = new long[n][];
+		List tasks = new ArrayList();
+		for (int i = 0; i < n; i++) {
+			final Tree t = (Tree) trees.get(i);
+			final int row = i;
+			tasks.add(new Callable() {
+				public Object call() {
+					prints[row] = fingerprints(t, rooted);
+					return null;
+				}
+			});
+		}
+		runAll(tasks, threads);
+
+		tasks.clear();
+		for (int i = 0; i < n - 1; i++) {
+			final int row = i;
+			tasks.add(new Callable() {
+				public Object call() throws IOException {
+					float[] values = new float[n - row - 1];
+					long[] a = prints[row];
+					for (int j = row + 1; j < n; j++) {
+						long[] b = prints[j];
+						values[j - row - 1] = a.length / 2 + b.length / 2 - 2 * common(a, b);
+					}
+					writer.write(row, condensedIndex(row, row + 1, n), values, values.length);
+					return null;
+				}
+			});
+		}
+		runAll(tasks, threads);
+	}
+
+	/**
+	 * Runs tasks on a fork-join pool and waits for all of them.
+	 * @param tasks Tasks to run.
+	 * @param threads Number of threads.
+	 * @throws IOException If a task failed to write.
+	 */
+	static void runAll(List tasks, int threads) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			List futures = pool.invokeAll(tasks);
+			for (int i = 0; i < futures.size(); i++)
+				((Future) futures.get(i)).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing distances");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Open addressing hash set of int pairs.
+	 */
+	private static class PairSet {
+		/** Pairs packed into longs, -1 for empty slots. */
+		private long[] table;
+		/** Number of pairs held. */
+		private int size = 0;
+
+		/**
+		 * Set sized for an expected number of pairs, which it must not exceed.
+		 * @param expected Maximum number of pairs.
+		 */
+		PairSet(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(4, expected) * 2) * 2;
+			table = new long[capacity];
+			Arrays.fill(table, -1L);
+		}
+
+		/**
+		 * Finds the slot of a pair, or the empty slot where it goes.
+		 * @param key Packed pair.
+		 * @return Slot index.
+		 */
+		private int slot(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			int mask = table.length - 1;
+			int i = (int) (h >>> 32) & mask;
+			while (table[i] != -1L && table[i] != key)
+				i = (i + 1) & mask;
+			return i;
+		}
+
+		/**
+		 * Adds a pair.
+		 * @param l First value, not negative.
+		 * @param r Second value, not negative.
+		 */
+		void add(int l, int r) {
+			long key = ((long) l << 32) | r;
+			int i = slot(key);
+			if (table[i] == -1L) {
+				table[i] = key;
+				size++;
+			}
+		}
+
+		/**
+		 * Tests for a pair.
+		 * @param l First value.
+		 * @param r Second value.
+		 * @return True if the pair was added.
+		 */
+		boolean contains(int l, int r) {
+			return table[slot(((long) l << 32) | r)] != -1L;
+		}
+
+		/**
+		 * Number of distinct pairs added.
+		 * @return Pair count.
+		 */
+		int size() {
+			return size;
+		}
+	}
+}
@@ -59,7 +59,7 @@ public class Tree {
 	 * name to each of them? No! each node has a key and the key is unique
 	 * for nodes. 
 	 */
-	private HashMap nodesByName; 
+	private NameTable nodesByName; 
 
 	/** key should be unique for each tree, set by object that creates trees  */
 	private int key;
@@ -78,7 +78,7 @@ public class Tree {
 	public Tree() {
 		root = new TreeNode();
 		nodes = new ArrayList();
-		nodesByName = new HashMap();
+		nodesByName = new NameTable(0, false);
 	}
 
 	/**
@@ -90,66 +90,66 @@ public class Tree {
 	public Tree(Tree treeToCopy)
 	{
 		// TODO: make this work with copy constructors (this constructor is only used in matrix mode)
+		treeToCopy.ensureStages(ALL_STAGES);
 		fileName = treeToCopy.fileName;
 		height = treeToCopy.height;
 		key = treeToCopy.key;
 //		leafSplitAxis = new SplitAxis(treeToCopy.leafSplitAxis); // not implemented
 		nexusIndex = treeToCopy.nexusIndex;
 		nodes = new ArrayList(treeToCopy.nodes);
-		nodesByName = new HashMap(treeToCopy.nodesByName);
+		nodesByName = new NameTable(treeToCopy.nodesByName);
 		numLeaves = treeToCopy.numLeaves;
+		leaves = treeToCopy.leaves;
+		leafView = treeToCopy.leafView;
 		root = treeToCopy.root;
 	}
 
 	/**
-	 * Clean up method, called when the tree is deleted.
+	 * Clean up method, for a tree that is deleted but may stay referenced for a while
+	 * (by a closed window, for example).  Drops the indexes and lookup tables built
+	 * from the nodes, which are rebuilt if the tree is used again.  The nodes are not
+	 * visited; they hold no resources besides memory, so the garbage collector
+	 * reclaims them with the tree and there is no finalizer or cleaner.
 	 * @see TreeNode#close()
 	 *
 	 */   
 	public void close(){
-		TreeNode pren = root.leftmostLeaf;		
-		for(TreeNode n = pren.preorderNext; n!=null; n=n.preorderNext) {
-			n.close();				 
-		}
-	}
-
-	/**
-	 * Calls to #close() when tree is deleted. 
-	 */
-	protected void finalize() throws Throwable {
-
-		try {
-			close();
-		}
-		finally {
-			super.finalize();     
-		}
+		lcaIndex = null;
+		splits = null;
+		rootDistances = null;
+		nameIndex = null;
+		sortedLeaves = null;
+		nodesByName = new NameTable(0, false);
+		duplicateCounts = null;
+		pendingStages |= NAMES;
 	}
 
 	/**
 	 * Returns the number of interior nodes in this tree.  For debugging.
 	 * @return Total number of nodes minus the number of leaves.
 	 */
-	private int getInteriorCount() { return nodes.size() - numLeaves;}
+	private int getInteriorCount() { ensureStages(KEYS | LEAVES); return nodes.size() - numLeaves;}
 	/**
 	 * Returns the node count, for internal and leaf nodes.
 	 * @return Size of the {@link #nodes} array, which contains all nodes.
 	 */
-	protected int getTotalNodeCount() { return nodes.size();}
+	protected int getTotalNodeCount() { ensureStages(KEYS); return nodes.size();}
 
 	/**
 	 * Returns the node indexed by the given key.
 	 * @param key Key of the node to retrieve.
 	 * @return Treenode referenced by the given key.
 	 */
-	public TreeNode getNodeByKey(int key){ if (key >= nodes.size()) return null; return (TreeNode) nodes.get(key);}
+	public TreeNode getNodeByKey(int key){ ensureStages(KEYS); if (key >= nodes.size()) return null; return (TreeNode) nodes.get(key);}
 	/**
 	 * Returns the node given by the string.
 	 * @param s Name/label of node to retrieve.
 	 * @return Treenode referenced by the given name.
+	 * @see #getNameIndex() for prefix, substring and case insensitive search
 	 */
 	public TreeNode getNodeByName(String s){ 
-		return (TreeNode) nodesByName.get(s);
+		ensureStages(NAMES | DEDUP);
+		return nodesByName.get(s);
 	}
 
 	/**
@@ -160,7 +160,7 @@ public class Tree {
 	 * Accessor for height of tree.  This is also the longest path from the root to some leaf node.
 	 * @return value of {@link #height}.
 	 */
-	public int getHeight() { return height; }
+	public int getHeight() { ensureStages(HEIGHTS); return height; }
 
 	/** Mutator for key
 	 * @param i New value for {@link #key}.
@@ -198,11 +198,11 @@ public class Tree {
 	protected TreeNode root=null;
 
 	/**
-	 * Sets the file name.  Copies the value for some reason.
-	 * @param tn New value for file name.
+	 * Sets the file name.
+	 * @param tn New value for file name, may be null for unnamed trees.
 	 */
 	public void setFileName(String tn) {
-		fileName = new String(tn);
+		fileName = tn;
 	}
 
 	/**
@@ -210,9 +210,75 @@ public class Tree {
 	 * @return value of {@link #numLeaves}.
 	 */
 	public int getLeafCount() {
+		ensureStages(LEAVES);
 		return numLeaves;
 	}
 
+	/** Post processing stage: node keys in preorder, the {@link #nodes} list and the labels. */
+	public static final int KEYS = 1;
+	/** Post processing stage: the name lookup table of {@link #getNodeByName(String)}.  Needs {@link #KEYS}. */
+	public static final int NAMES = 2;
+	/** Post processing stage: node heights and the tree height. */
+	public static final int HEIGHTS = 4;
+	/** Post processing stage: the leaf index of {@link #getLeaf(int)}.  Needs {@link #KEYS}. */
+	public static final int LEAVES = 8;
+	/** Post processing stage: numbering of duplicate leaf names.  Needs {@link #LEAVES}. */
+	public static final int DEDUP = 16;
+	/** All post processing stages. */
+	public static final int ALL_STAGES = KEYS | NAMES | HEIGHTS | LEAVES | DEDUP;
+
+	/** Stages deferred by {@link #postProcess(int)} that haven't run yet. */
+	private int pendingStages = 0;
+
+	/**
+	 * True once the tree was recycled with {@link #reset()}: post processing then
+	 * refills the leaf array and keeps {@link #duplicateCounts} for the next tree.
+	 */
+	private boolean recycled = false;
+
+	/** Scratch table for numbering duplicate leaf names, kept by recycled trees. */
+	private NameTable duplicateCounts = null;
+
+	/** Number of leaves renamed by the {@link #DEDUP} stage. */
+	private int duplicateLeafCount = 0;
+
+	/**
+	 * Returns the number of leaves that share their name with another leaf, and were
+	 * numbered by post processing.
+	 * @return Count of renamed leaves, 0 if all leaf names are distinct.
+	 */
+	public int getDuplicateLeafCount() {
+		ensureStages(LEAVES | DEDUP);
+		return duplicateLeafCount;
+	}
+
+	/**
+	 * Empties this tree for reuse by a parser that recycles trees, see
+	 * {@link net.sourceforge.olduvai.treejuxtaposer.TreeParser#release(Tree)}.
+	 * The node list, the name table and the leaf array keep their capacity, so
+	 * post processing a tree of the same size again allocates next to nothing.
+	 * The nodes are not touched and the root is null until {@link #setRootNode(TreeNode)}.
+	 */
+	public void reset() {
+		recycled = true;
+		root = null;
+		fileName = null;
+		key = 0;
+		nexusIndex = 0;
+		height = 0;
+		duplicateLeafCount = 0;
+		pendingStages = 0;
+		nodes.clear();
+		nodesByName.clear();
+		Arrays.fill(leaves, null);
+		numLeaves = 0;
+		sortedLeaves = null;
+		lcaIndex = null;
+		splits = null;
+		rootDistances = null;
+		nameIndex = null;
+	}
+
 	/**
 	 * Post processing includes computing size of each node, 
 	 * linking nodes in different order, etc.
@@ -222,41 +288,154 @@ public class Tree {
 	 * to set index values!
 	 *
 	 * @see     TreeNode
+	 * @see     #postProcess(int)
 	 */
 	public void postProcess() {
-		preorderPostProcess();
-		linkLeaves();
+		postProcess(ALL_STAGES);
 //		System.out.println("progress bar updated: min:" + jpb.getMinimum() + " max:" + jpb.getMaximum() + " value:" + jpb.getValue());
 	}
 
+	/**
+	 * Post processes the tree, running only the given stages now.  The other stages run
+	 * on first use, from the getters that need them: {@link #KEYS} from
+	 * {@link #getNodeByKey(int)}, {@link #NAMES} and {@link #DEDUP} from
+	 * {@link #getNodeByName(String)}, {@link #HEIGHTS} from {@link #getHeight()},
+	 * {@link #LEAVES} from {@link #getLeafCount()}, and LEAVES with DEDUP from the
+	 * getters handing out leaves.  Code reading {@link #nodes} or the
+	 * {@link TreeNode} fields directly has to call {@link #ensureStages(int)} first.
+	 * Lazy stages are not thread safe; a tree shared between threads should be
+	 * post processed with all stages, the default of the parsers.
+	 * @param stages Stages to run now, a combination of {@link #KEYS}, {@link #NAMES},
+	 * {@link #HEIGHTS}, {@link #LEAVES} and {@link #DEDUP}, or {@link #ALL_STAGES}.
+	 */
+	public void postProcess(int stages) {
+		lcaIndex = null;
+		splits = null;
+		rootDistances = null;
+		nameIndex = null;
+		pendingStages = ALL_STAGES;
+		ensureStages(stages);
+	}
+
+	/**
+	 * Runs the given post processing stages, and the ones they need, if they were deferred
+	 * by {@link #postProcess(int)}.  Stages that already ran are not repeated.
+	 * @param stages Stages that have to be done.
+	 */
+	public void ensureStages(int stages) {
+		int todo = stages & pendingStages;
+		if (todo == 0)
+			return;
+		if ((todo & DEDUP) != 0)
+			todo |= LEAVES & pendingStages;
+		if ((todo & (NAMES | LEAVES)) != 0)
+			todo |= KEYS & pendingStages;
+		// the same order as eager post processing, so the results are the same
+		if ((todo & KEYS) != 0)
+			numberNodes();
+		if ((todo & NAMES) != 0)
+			mapNames();
+		if ((todo & HEIGHTS) != 0)
+			setHeights();
+		if ((todo & LEAVES) != 0)
+			linkLeaves();
+		if ((todo & DEDUP) != 0)
+			numberDuplicateLeaves();
+	}
+
+	/**
+	 * Installs the state {@link #postProcess()} would compute, for trees rebuilt by {@link TreeSnapshot}.
+	 * The name table is left to the {@link #NAMES} stage, which builds it from the loaded names
+	 * and labels on the first lookup.
+	 * @param nodes Nodes in key order.
+	 * @param numLeaves Number of leaves.
+	 * @param height Height of the tree.
+	 * @param nexusIndex Index of the tree in its nexus file.
+	 */
+	void setLoadedState(ArrayList nodes, int numLeaves, int height, int nexusIndex) {
+		pendingStages = NAMES;
+		this.nodes = nodes;
+		this.height = height;
+		this.nexusIndex = nexusIndex;
+		TreeNode[] leafArray = new TreeNode[numLeaves];
+		int count = 0;
+		for(int i=0; i<nodes.size() && count<numLeaves; i++) {
+			TreeNode n = (TreeNode) nodes.get(i);
+			if(n.isLeaf())
+				leafArray[count++] = n;
+		}
+		setLeaves(leafArray);
+	}
+
 	/**
 	 * 
-	 * Traverses the tree in pre-order, stores the ordering in the preorderNext field of TreeNodes
+	 * Traverses the tree in pre-order, the {@link #KEYS} stage: numbers the nodes,
+	 * fills {@link #nodes} and saves the names as labels.
 	 * Sets node count for the tree.
 	 *
 	 * @see     TreeNode
 	 */
-	private void preorderPostProcess()
+	private void numberNodes()
 	{
 		// munge names here, names become fully qualified, labels are what names were
-		final char separator = '/'; // separator between name fields
 		// arbitrary seen by users in search, no parsing on this is required later
 		int index = 0;
-		height = 1;
+		nodes.clear(); // post processing may be repeated
 		for(TreeNode n = root; n != null; n = n.preorderNext)
 		{
 			n.label = n.name;
 			n.key = index++;
 			nodes.add(n);
-			if(n.name != null && n.name.length() > 0) {
+		}
+		pendingStages &= ~KEYS;
+	}
+
+	/**
+	 * Fills the name lookup table, the {@link #NAMES} stage.  Labels hold the names as
+	 * parsed; names differ from them only for leaves numbered by {@link #DEDUP}, which are
+	 * also found under their numbered names.
+	 */
+	private void mapNames()
+	{
+		int named = 0;
+		for(int i=0; i<nodes.size(); i++)
+		{
+			String label = ((TreeNode) nodes.get(i)).label;
+			if(label != null && label.length() > 0)
+				named++;
+		}
+		nodesByName.clear();
+		nodesByName.ensureCapacity(named);
+		for(int i=0; i<nodes.size(); i++)
+		{
+			TreeNode n = (TreeNode) nodes.get(i);
+			if(n.label != null && n.label.length() > 0) {
 				// don't put an empty string in the
 				// hash table
-				nodesByName.put(n.name, n);
+				nodesByName.put(n.label, n);
 			}
+		}
+		for(int i=0; i<nodes.size(); i++)
+		{
+			TreeNode n = (TreeNode) nodes.get(i);
+			if(n.name != null && n.name != n.label && n.name.length() > 0)
+				nodesByName.put(n.name, n);
+		}
+		pendingStages &= ~NAMES;
+	}
+
+	/**
+	 * Sets the height of every node and of the tree, the {@link #HEIGHTS} stage.
+	 */
+	private void setHeights()
+	{
+		height = 1;
+		for(TreeNode n = root; n != null; n = n.preorderNext)
+		{
 			n.height = (null != n.parent) ? n.parent.height+1 : 1;
 			height = (n.height > height) ? n.height : height;
 		}
-
+		pendingStages &= ~HEIGHTS;
 	}
 
 	/**
@@ -267,7 +446,8 @@ public class Tree {
 	public void setUpNameLists()
 	{
 		nodes = new ArrayList();
-		nodesByName = new HashMap();
+		nodesByName = new NameTable(0, false);
+		nameIndex = null;
 		final char separator = '/'; // separator between name fields
 		for(TreeNode n = root; n != null; n = n.preorderNext)
 		{
@@ -294,89 +474,248 @@ public class Tree {
 
 	/**
 	 * Traverses the subtree rooted at TreeNode n in pre-order, stores the
-	 * ordering in the preorderNext field of TreeNodes. 
+	 * ordering in the preorderNext field of TreeNodes.  Children are linked
+	 * before their parents, without recursion.
 	 * @param   n the root of the subtree
 	 *
 	 * @see     TreeNode
+	 * @see     TreeTraversal#depthFirst(TreeNode, TreeVisitor)
 	 */
 	private void linkSubtreeNodesInPreorder(TreeNode n) {
 
 		if(n.isLeaf()) return;
-		for(int i=0; i<n.numberChildren(); i++) {
-			linkSubtreeNodesInPreorder(n.getChild(i));
-		}
-
-		n.preorderNext = n.firstChild();
-		for(int i=0; i<n.numberChildren()-1; i++) {
-			n.getChild(i).rightmostLeaf.preorderNext = n.getChild(i+1);
-		}
+		new TreeTraversal().depthFirst(n, new TreeVisitor() {
+			public void exit(TreeNode m) {
+				m.linkNodesInPreorder();
+			}
+		});
 		n.rightmostLeaf.preorderNext = null;
 	}
 
 	/**
 	 * 
-	 * Links leaves of the tree in pre-order,
-	 * check to see whether leaves have distinct names.
-	 * If leaves have the same name, add a suffix index separated by " "
+	 * Links leaves of the tree in pre-order, the {@link #LEAVES} stage.
 	 *
 	 * @see     #linkNodesInPreorder()
 	 * @see     TreeNode
-	 * @see     NameComparator
-	 * @param jpb Progress bar.
 	 */
 	private void linkLeaves() {
-		int counter = 0;
-		int percentage = 0;
-		TreeNode pren = root.leftmostLeaf;
-		Vector leaves = new Vector();
-		leaves.add(pren);
-//		pren.lindex = 0;
-		for(TreeNode n = pren.preorderNext; n!=null; n=n.preorderNext)
+		int count = 0;
+		for(TreeNode n = root.leftmostLeaf; n!=null; n=n.preorderNext)
 		{
-			counter++;
 			if(n.isLeaf())
-			{
-				leaves.add(n);
-			}
+				count++;
+		}
+		// a recycled tree refills its own array, others may share it with a copy
+		TreeNode[] leafArray = (recycled && leaves.length == count) ? leaves : new TreeNode[count];
+		count = 0;
+		for(TreeNode n = root.leftmostLeaf; n!=null; n=n.preorderNext)
+		{
+			if(n.isLeaf())
+				leafArray[count++] = n;
 		}
-		numLeaves = leaves.size();
+		setLeaves(leafArray);
+		pendingStages &= ~LEAVES;
+	}
 
-		NameComparator myNameComparator = new NameComparator();
-		TreeNode[] sortedLeafArray = (TreeNode[])leaves.toArray(new TreeNode[leaves.size()]);
-		Arrays.sort(sortedLeafArray, myNameComparator);
-		int index = 0;
-		TreeNode curr = sortedLeafArray[0];
-		TreeNode next;
-		for(int i=0; i<leaves.size()-1; i++){
-			next = sortedLeafArray[i+1]; // only 1 index lookup per iteration
-			boolean compare = myNameComparator.compare(curr, next) == 0; 
-			if (compare || index > 0)
+	/**
+	 * Checks whether leaves have distinct names, the {@link #DEDUP} stage.
+	 * If leaves have the same name, add a suffix index separated by " ".
+	 * Leaves sharing a name are numbered from 0 in pre-order.  Duplicates are found
+	 * by hashing, so this is linear in the number of leaves.
+	 *
+	 * @see     #getLeavesSortedByName()
+	 */
+	private void numberDuplicateLeaves() {
+		pendingStages &= ~DEDUP;
+		duplicateLeafCount = 0;
+		// occurrences of each leaf name, then the next index to hand out for duplicates
+		NameTable counts = duplicateCounts;
+		if (counts == null)
+			counts = new NameTable(numLeaves, true);
+		else {
+			counts.clear();
+			counts.ensureCapacity(numLeaves);
+		}
+		if (recycled)
+			duplicateCounts = counts;
+		int named = 0;
+		for(int i=0; i<numLeaves; i++){
+			String name = leaves[i].getName();
+			if (name != null) {
+				counts.count(counts.add(name));
+				named++;
+			}
+		}
+		if (counts.size() == named)
+			return;
+		for(int i=0; i<numLeaves; i++){
+			TreeNode curr = leaves[i];
+			String name = curr.getName();
+			if (name == null)
+				continue;
+			int slot = counts.add(name);
+			if (counts.getCount(slot) > 1)
 			{
-				String name = curr.getName();
-				nodesByName.remove(curr); // before all nodes with
-				// same name were being ignored in search and comparing two identically named
-				// leaves was broken, much fewer differences in trees with many leaves that
-				// have the same name (imagine: all index.html occurences being marked as
+				// the original name stays mapped to the last node that had it, renamed
+				// leaves are added under their numbered names so they can be searched
+				// and compared (imagine: all index.html occurences being marked as
 				// different since numbering convention doesn't string match the original node name)
-				curr.setName(name+ " " + index); //sb.toString());
-				nodesByName.put(name+ " " + index, curr);//sortedLeafArray[i].getName(), sortedLeafArray[i]); // add the node back with number convention
-				if (!compare)
-					index = 0;
-				else
-					index++;
+				String numbered = name + " " + counts.next(slot);
+				curr.setName(numbered);
+				duplicateLeafCount++;
+				if ((pendingStages & NAMES) == 0)
+					nodesByName.put(numbered, curr);
 			}
-			curr = next;
 		}
 	}
 
+	/**
+	 * Installs the leaves in preorder and numbers them.
+	 * @param leafArray Leaves in preorder.
+	 */
+	private void setLeaves(TreeNode[] leafArray) {
+		if (leafArray != leaves)
+			leafView = Collections.unmodifiableList(Arrays.asList(leafArray));
+		leaves = leafArray;
+		numLeaves = leaves.length;
+		sortedLeaves = null;
+		for(int i=0; i<numLeaves; i++)
+			leaves[i].lindex = i;
+	}
+
+	/** Leaves in preorder, indexed by {@link TreeNode#lindex}. */
+	private TreeNode[] leaves = new TreeNode[0];
+
+	/** Read only list backed by {@link #leaves}, for views of leaf ranges. */
+	private List leafView = Collections.EMPTY_LIST;
+
+	/**
+	 * Leaves in the collation order of their names, computed on first use after {@link #postProcess()}.
+	 * Null until then.
+	 */
+	private TreeNode[] sortedLeaves = null;
+
+	/**
+	 * Returns the leaves of this tree sorted by name with a US English {@link Collator}.
+	 * The sort is done on the first call and kept until the tree is post processed again.
+	 * @return Unmodifiable list of leaves in name order.
+	 * @see NameComparator
+	 */
+	public List getLeavesSortedByName() {
+		ensureStages(LEAVES | DEDUP);
+		if (sortedLeaves == null) {
+			TreeNode[] sorted = leaves.clone();
+			Arrays.sort(sorted, new NameComparator());
+			sortedLeaves = sorted;
+		}
+		return Collections.unmodifiableList(Arrays.asList(sortedLeaves));
+	}
+
+	/** Lowest common ancestor index, built on request by {@link #getLcaIndex()}. */
+	private LcaIndex lcaIndex = null;
+
+	/**
+	 * Returns the lowest common ancestor index of this tree, building it on the first call.
+	 * The index is kept until the tree is post processed again.  It costs about 12 bytes
+	 * per node, so it is only built for callers that ask for it.
+	 * @return Index answering LCA queries in constant time.
+	 */
+	public LcaIndex getLcaIndex() {
+		ensureStages(KEYS);
+		if (lcaIndex == null)
+			lcaIndex = new LcaIndex(this);
+		return lcaIndex;
+	}
+
+	/** Name search index, built on request by {@link #getNameIndex()}. */
+	private NameIndex nameIndex = null;
+
+	/**
+	 * Returns the prefix and substring search index over the node names, building it on
+	 * the first call.  The index is kept until the names change, by post processing or
+	 * {@link #setUpNameLists()}.
+	 * @return Index over the names of all named nodes.
+	 */
+	public NameIndex getNameIndex() {
+		ensureStages(KEYS | DEDUP);
+		if (nameIndex == null)
+			nameIndex = new NameIndex(this);
+		return nameIndex;
+	}
+
+	/** Sums of edge weights from the root, by key, computed on request by {@link #getRootDistances()}. */
+	private double[] rootDistances = null;
+
+	/**
+	 * Returns the distance from the root to every node, the sum of the {@link TreeNode#weight}s
+	 * on the path below the root, indexed by {@link TreeNode#key}.  Computed in one pass over
+	 * the keys on the first call and kept until the tree is post processed again; the array
+	 * is shared, callers must not modify it.
+	 * @return Root distances by key.
+	 */
+	public double[] getRootDistances() {
+		ensureStages(KEYS);
+		if (rootDistances == null) {
+			double[] d = new double[nodes.size()];
+			// keys are preorder, parents come first
+			for(int k=1; k<d.length; k++) {
+				TreeNode n = (TreeNode) nodes.get(k);
+				d[k] = d[n.parent.key] + n.weight;
+			}
+			rootDistances = d;
+		}
+		return rootDistances;
+	}
+
+	/**
+	 * Distance from the root to a node.
+	 * @param n Node of this tree.
+	 * @return Sum of the edge weights on the path from the root.
+	 * @see #getRootDistances()
+	 */
+	public double getRootDistance(TreeNode n) {
+		return getRootDistances()[n.key];
+	}
+
+	/** Splits of this tree, computed on request by {@link #getSplits()}. */
+	private TreeSplits splits = null;
+
+	/**
+	 * Returns the splits of this tree over its own leaves, computing them on the first call.
+	 * Kept until the tree is post processed again.  Use the {@link TreeSplits} constructors
+	 * to share a taxon ordering between trees or to skip the bitsets on large trees.
+	 * @return Bitsets and fingerprints of the leaf sets of all nodes.
+	 */
+	public TreeSplits getSplits() {
+		ensureStages(KEYS | LEAVES | DEDUP);
+		if (splits == null)
+			splits = new TreeSplits(this);
+		return splits;
+	}
+
 	/** Get the leaf associated with the given leaf index.
 	 * @param index A leaf index of interest.
 	 * @return The leaf node at the index, or null on error.
 	 * */
 	public TreeNode getLeaf(int index)
 	{
-//		System.out.println("getting leaf: " + index );
-		return null;
+		ensureStages(LEAVES | DEDUP);
+		if (index < 0 || index >= numLeaves)
+			return null;
+		return leaves[index];
+	}
+
+	/**
+	 * Get the leaves under this node as a read only view, without copying.
+	 * The view is backed by the leaf index, so it is only valid until the tree is post processed again.
+	 * @param node Node to get leaves under.
+	 * @return Leaves under the node in preorder, indexed from {@link TreeNode#getMinLeafIndex()}.
+	 */
+	public List getLeafRange(TreeNode node)
+	{
+		ensureStages(LEAVES | DEDUP);
+		return leafView.subList(node.getMinLeafIndex(), node.getMaxLeafIndex() + 1);
 	}
 
 	/** Stub function */
@@ -408,24 +747,14 @@ public class Tree {
 	
 	/**
 	 * Get the leaves under this node.  Used for tree to tree comparison, removing leaf nodes from difference calculations when they only appear in one side of the tree.
-	 * This operation is constant time per leaf, since it relies on pre-ordered node links and pointers to extreme leaves.
-	 * Time complexity of this function is linear in the number of leaves in the subtree under the node.
+	 * This copies the node's range of the leaf index, so time is linear in the number of leaves in the subtree under the node.
+	 * Use {@link #getLeafRange(TreeNode)} for a view that doesn't copy.
 	 * @param node Node to get leaves under.  The root node will return all leaves in the tree, leaves return a list of just themselves.
 	 * @return List of leaves under this node.
 	 */
 	public LinkedList getLeaves(TreeNode node)
 	{
-		LinkedList leaves = new LinkedList();
-		TreeNode currNode = node.leftmostLeaf;
-		while (currNode != node.rightmostLeaf)
-		{
-			if (!currNode.isLeaf()) // internal node?
-				currNode = currNode.leftmostLeaf; // descend to minimal leaf
-			leaves.add(currNode);
-			currNode = currNode.preorderNext;
-		}
-		leaves.add(node.rightmostLeaf);
-		return leaves;
+		return new LinkedList(getLeafRange(node));
 	}
 }
 
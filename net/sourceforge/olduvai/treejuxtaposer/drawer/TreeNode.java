@@ -63,8 +63,8 @@ public class TreeNode {
 	private int fontSize;
 
 	/** Score for a node in [0,1] that corresponds to the topological similarity between two tree drawers.
-	 @see TreePairs#getBestCorrNodeScore(Tree, TreeNode, Tree, int) */
-	private Double bcnScore;
+	 @see BestCorrNodes */
+	private float bcnScore;
 
 	// /**
 	// * The offset of the point with respect to the cell. We only have
@@ -97,6 +97,18 @@ public class TreeNode {
 		return rightmostLeaf.key;
 	}
 
+	/** Returns the smallest leaf index of leaves in the subtree rooted by this node.
+	 * @return The {@link #lindex} of the leftmost leaf. */
+	public int getMinLeafIndex() {
+		return leftmostLeaf.lindex;
+	}
+
+	/** Returns the largest leaf index of leaves in the subtree rooted by this node.
+	 * @return The {@link #lindex} of the rightmost leaf. */
+	public int getMaxLeafIndex() {
+		return rightmostLeaf.lindex;
+	}
+
 	/**
 	 * Returns the key for this node.
 	 * @return The value of {@link #key} for this node.
@@ -164,6 +176,9 @@ public class TreeNode {
 	/** The number of leaves under this internal node (or 1 for leaves). */
 	public int numberLeaves;
 
+	/** Position of this leaf among the leaves of the tree in preorder, set by {@link Tree#postProcess()}.  -1 for internal nodes. */
+	public int lindex = -1;
+
 	/** The next preorder node. */
 	public TreeNode preorderNext = null;
 
@@ -178,27 +193,47 @@ public class TreeNode {
 	 */
 	public TreeNode() {
 		children = new ArrayList(2);
-		bcnScore = new Double(0.0);
 	}
 
 	/**
-	 * Clean this node of children.
+	 * Tree node with a known number of children, for {@link TreeSnapshot}.  Leaves get
+	 * an empty children list that allocates no array.
+	 * @param childCount Number of children the node will get.
+	 */
+	TreeNode(int childCount) {
+		children = new ArrayList(childCount);
+	}
+
+	/**
+	 * Clean this node of children.  Not needed before dropping a node, which the
+	 * garbage collector reclaims with its subtree.
 	 */
 	public void close() {
 		children.clear();
 	}
 
 	/**
-	 * Destroy this node.  Runs {@link #close()}.
+	 * Returns this node to the state of a new node, for reuse by a parser that
+	 * recycles trees.  The children list is emptied but keeps its capacity.
 	 */
-	protected void finalize() throws Throwable {
-
-		try {
-			close();
-		} finally {
-			super.finalize();
-			// System.out.println("finally clean treeNodes");
-		}
+	public void reset() {
+		children.clear();
+		key = 0;
+		fontSize = 0;
+		bcnScore = 0.0f;
+		computedFrame = 0;
+		midYPosition = 0.0;
+		parent = null;
+		name = "";
+		label = "";
+		height = 0;
+		weight = 0.0f;
+		leftmostLeaf = null;
+		rightmostLeaf = null;
+		numberLeaves = 0;
+		lindex = -1;
+		preorderNext = null;
+		posorderNext = null;
 	}
 
 	/**
@@ -318,13 +353,15 @@ public class TreeNode {
 	}
 
 	/**
-	 * For debugging, prints the subtree contents, recursive.
+	 * For debugging, prints the subtree contents in preorder.
 	 * 
 	 */
 	private void printSubtree() {
-		print();
-		for (int i = 0; i < children.size(); i++)
-			getChild(i).printSubtree();
+		new TreeTraversal().depthFirst(this, new TreeVisitor() {
+			public void enter(TreeNode n) {
+				n.print();
+			}
+		});
 	}
 
 	/**
@@ -392,7 +429,7 @@ public class TreeNode {
 	 * @param n New value of {@link #bcnScore}.
 	 */
 	public void setBcnScore(float n) {
-		bcnScore = new Double(n);
+		bcnScore = n;
 	}
 
 	/**
@@ -400,6 +437,6 @@ public class TreeNode {
 	 * @return Value of {@link #bcnScore} for this node.
 	 */
 	public Double getBcnScore() {
-		return bcnScore;
+		return Double.valueOf(bcnScore);
 	}
 }
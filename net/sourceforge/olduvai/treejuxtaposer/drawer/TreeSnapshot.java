@@ -0,0 +1,280 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Binary snapshot of a post processed {@link Tree}, for reloading large trees
+ * without parsing them again.
+ *
+ * A snapshot holds the topology as a parent key array in preorder, the edge
+ * weights, the node names after duplicate leaf renaming and the original labels
+ * where they differ.  Loading reads these with bulk array reads and rebuilds the
+ * TreeNode links in one reverse and one forward pass over the keys; none of
+ * {@link Tree#postProcess()} (in particular the leaf name sort) runs again, and the
+ * name lookup table is only built by the first {@link Tree#getNodeByName(String)}.
+ *
+ * Loading still creates one TreeNode, children list and name per node, and for large
+ * trees allocating and collecting these objects is most of the load time, so a reload
+ * is several times faster than parsing but not instant.
+ *
+ * Layout, big endian: magic, version, node count, leaf count, height, tree key,
+ * nexus index, file name; then int parents[n], float weights[n], int name
+ * lengths[n] and the UTF-8 name bytes; then the count of labels that differ from
+ * their names, with key, length and UTF-8 bytes of each.
+ *
+ * @see Tree
+ */
+public class TreeSnapshot {
+
+	/** Snapshot file identifier. */
+	private static final int magic = 0x4E575453; // NWTS
+	/** Snapshot format version. */
+	private static final int version = 1;
+
+	/** Not instantiated, all methods are static. */
+	private TreeSnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot of a tree to a file.
+	 * @param t Post processed tree.
+	 * @param file File to create or replace.
+	 * @throws IOException If the file can't be written.
+	 */
+	public static void write(Tree t, Path file) throws IOException {
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			write(t, ch);
+		}
+		finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of a tree.
+	 * @param t Post processed tree.
+	 * @param ch Channel to write to.
+	 * @throws IOException On write errors.
+	 */
+	public static void write(Tree t, WritableByteChannel ch) throws IOException {
+		t.ensureStages(Tree.ALL_STAGES);
+		int n = t.getTotalNodeCount();
+		int[] parents = new int[n];
+		float[] weights = new float[n];
+		byte[][] names = new byte[n][];
+		int nameBytes = 0;
+		int labelCount = 0;
+		for (int k = 0; k < n; k++) {
+			TreeNode node = t.getNodeByKey(k);
+			parents[k] = (node.parent == null) ? -1 : node.parent.key;
+			weights[k] = node.weight;
+			if (node.name != null) {
+				names[k] = node.name.getBytes(StandardCharsets.UTF_8);
+				nameBytes += names[k].length;
+			}
+			if (!sameLabel(node))
+				labelCount++;
+		}
+
+		byte[] fileName = (t.getName() == null) ? null : t.getName().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(32 + (fileName == null ? 0 : fileName.length));
+		header.putInt(magic).putInt(version).putInt(n).putInt(t.getLeafCount()).putInt(t.getHeight())
+			.putInt(t.getKey()).putInt(t.getNexusIndex());
+		header.putInt(fileName == null ? -1 : fileName.length);
+		if (fileName != null)
+			header.put(fileName);
+		header.flip();
+		writeFully(ch, header);
+
+		ByteBuffer arrays = ByteBuffer.allocate(n * 12);
+		arrays.asIntBuffer().put(parents);
+		arrays.position(n * 4);
+		arrays.asFloatBuffer().put(weights);
+		arrays.position(n * 8);
+		for (int k = 0; k < n; k++)
+			arrays.putInt(names[k] == null ? -1 : names[k].length);
+		arrays.flip();
+		writeFully(ch, arrays);
+
+		ByteBuffer nameBuffer = ByteBuffer.allocate(nameBytes);
+		for (int k = 0; k < n; k++)
+			if (names[k] != null)
+				nameBuffer.put(names[k]);
+		nameBuffer.flip();
+		writeFully(ch, nameBuffer);
+
+		ByteBuffer labels = ByteBuffer.allocate(4);
+		labels.putInt(labelCount).flip();
+		writeFully(ch, labels);
+		for (int k = 0; k < n && labelCount > 0; k++) {
+			TreeNode node = t.getNodeByKey(k);
+			if (sameLabel(node))
+				continue;
+			byte[] label = (node.label == null) ? new byte[0] : node.label.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer b = ByteBuffer.allocate(8 + label.length);
+			b.putInt(k).putInt(node.label == null ? -1 : label.length).put(label).flip();
+			writeFully(ch, b);
+		}
+	}
+
+	/**
+	 * Tests if the label of a node is its name, so it need not be written.
+	 * @param node Node to test.
+	 * @return True if label and name are equal or both null.
+	 */
+	private static boolean sameLabel(TreeNode node) {
+		return (node.name == null) ? node.label == null : node.name.equals(node.label);
+	}
+
+	/**
+	 * Writes all of a buffer.
+	 * @param ch Channel to write to.
+	 * @param b Buffer to write.
+	 * @throws IOException On write errors.
+	 */
+	private static void writeFully(WritableByteChannel ch, ByteBuffer b) throws IOException {
+		while (b.hasRemaining())
+			ch.write(b);
+	}
+
+	/**
+	 * Reads a tree from a snapshot file.  The file is memory mapped for the bulk reads.
+	 * @param file Snapshot file written by {@link #write(Tree, Path)}.
+	 * @return The tree, in the same state as the tree that was written.
+	 * @throws IOException If the file can't be read or is not a snapshot.
+	 */
+	public static Tree read(Path file) throws IOException {
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		}
+		finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Reads a tree from a snapshot stream.  The stream is read into memory first.
+	 * @param ch Channel positioned at the start of a snapshot.
+	 * @return The tree, in the same state as the tree that was written.
+	 * @throws IOException If the channel can't be read or is not a snapshot.
+	 */
+	public static Tree read(ReadableByteChannel ch) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(1 << 16);
+		while (ch.read(b) >= 0) {
+			if (!b.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(b.capacity() * 2);
+				b.flip();
+				bigger.put(b);
+				b = bigger;
+			}
+		}
+		b.flip();
+		return read(b);
+	}
+
+	/**
+	 * Rebuilds a tree from snapshot bytes.
+	 * @param b Buffer positioned at the start of a snapshot.
+	 * @return The tree.
+	 * @throws IOException If the buffer is not a snapshot.
+	 */
+	private static Tree read(ByteBuffer b) throws IOException {
+		if (b.remaining() < 32 || b.getInt() != magic)
+			throw new IOException("Not a tree snapshot");
+		if (b.getInt() != version)
+			throw new IOException("Unsupported tree snapshot version");
+		int n = b.getInt();
+		int numLeaves = b.getInt();
+		int height = b.getInt();
+		int treeKey = b.getInt();
+		int nexusIndex = b.getInt();
+		int fileNameLength = b.getInt();
+		String fileName = null;
+		if (fileNameLength >= 0) {
+			byte[] f = new byte[fileNameLength];
+			b.get(f);
+			fileName = new String(f, StandardCharsets.UTF_8);
+		}
+
+		int[] parents = new int[n];
+		float[] weights = new float[n];
+		int[] nameLengths = new int[n];
+		b.asIntBuffer().get(parents);
+		b.position(b.position() + n * 4);
+		b.asFloatBuffer().get(weights);
+		b.position(b.position() + n * 4);
+		b.asIntBuffer().get(nameLengths);
+		b.position(b.position() + n * 4);
+		byte[] nameBytes = new byte[0];
+		int[] childCounts = new int[n];
+		for (int k = 0; k < n; k++)
+			if (parents[k] >= 0)
+				childCounts[parents[k]]++;
+
+		TreeNode[] nodes = new TreeNode[n];
+		for (int k = 0; k < n; k++) {
+			TreeNode node = new TreeNode(childCounts[k]);
+			int length = nameLengths[k];
+			if (length < 0)
+				node.name = null;
+			else if (length > 0) {
+				if (nameBytes.length < length)
+					nameBytes = new byte[Math.max(length, 64)];
+				b.get(nameBytes, 0, length);
+				node.name = new String(nameBytes, 0, length, StandardCharsets.UTF_8);
+			}
+			node.label = node.name;
+			node.key = k;
+			node.weight = weights[k];
+			if (parents[k] >= 0)
+				nodes[parents[k]].addChild(node); // keys are preorder, so children are added in order
+			nodes[k] = node;
+		}
+		int labelCount = b.getInt();
+		for (int i = 0; i < labelCount; i++) {
+			int k = b.getInt();
+			int length = b.getInt();
+			if (length < 0) {
+				nodes[k].label = null;
+				continue;
+			}
+			byte[] label = new byte[length];
+			b.get(label);
+			nodes[k].label = new String(label, StandardCharsets.UTF_8);
+		}
+
+		// children have larger keys than their parents, link leaves up as the parser does
+		for (int k = n - 1; k >= 0; k--) {
+			TreeNode node = nodes[k];
+			node.setExtremeLeaves();
+			node.setNumberLeaves();
+			node.linkNodesInPreorder();
+			node.linkNodesInPostorder();
+		}
+		ArrayList nodeList = new ArrayList(n);
+		for (int k = 0; k < n; k++) {
+			TreeNode node = nodes[k];
+			node.height = (node.parent == null) ? 1 : node.parent.height + 1;
+			nodeList.add(node);
+		}
+
+		Tree t = new Tree();
+		t.setRootNode(n > 0 ? nodes[0] : new TreeNode());
+		if (fileName != null)
+			t.setFileName(fileName);
+		t.setKey(treeKey);
+		t.setLoadedState(nodeList, numLeaves, height, nexusIndex);
+		return t;
+	}
+}
@@ -0,0 +1,296 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.util.HashMap;
+
+/**
+ * The splits (clades) of a post processed {@link Tree}: for every internal node, the set
+ * of taxa of the leaves under it.
+ *
+ * Taxa are numbered by a taxon ordering, by default the leaves of the tree in preorder;
+ * trees compared with each other should share one ordering.  Two forms are computed in a
+ * single postorder pass over the {@link TreeNode#posorderNext} links: full bitsets over
+ * the taxa, optional because they take (internal nodes) x (taxa) bits, and 128 bit
+ * fingerprints, the XOR of a hash of each taxon name, which take 16 bytes per node and
+ * are equal for equal leaf sets with overwhelming probability.  Subtrees with more than
+ * {@link #parallelThreshold} nodes are computed on the common fork-join pool.
+ *
+ * @see Tree#getSplits()
+ */
+public class TreeSplits {
+
+	/** Subtrees with fewer nodes than this are computed on the calling thread. */
+	public static final int parallelThreshold = ParallelPostorder.parallelThreshold;
+
+	/** Tree the splits were computed for. */
+	private Tree tree;
+	/** Taxon names by taxon number. */
+	private String[] taxa;
+	/** Taxon numbers by name. */
+	private HashMap taxonIndex;
+	/** Taxon number of each leaf, by leaf index. */
+	private int[] leafTaxon;
+	/** High and low fingerprint words of each taxon, interleaved. */
+	private long[] taxonPrints;
+	/** High and low fingerprint words of each node, interleaved by key. */
+	private long[] prints;
+	/** Fingerprint of the whole taxon set, high word. */
+	private long allHigh;
+	/** Fingerprint of the whole taxon set, low word. */
+	private long allLow;
+	/** Words per bitset, 0 if bitsets were not computed. */
+	private int words;
+	/** Bitset offset of each internal node in bits, by key; -1 for leaves. */
+	private int[] bitsOffset;
+	/** Bitsets of the internal nodes. */
+	private long[] bits;
+
+	/**
+	 * Computes fingerprints and bitsets with the leaves of the tree, in preorder, as taxa.
+	 * @param t Post processed tree.
+	 */
+	public TreeSplits(Tree t) {
+		this(t, null, true);
+	}
+
+	/**
+	 * Computes the splits of a tree over a given taxon ordering.
+	 * @param t Post processed tree.
+	 * @param taxa Taxon names, null for the leaves of t in preorder.  Every leaf name of t must be one of them.
+	 * @param withBits True to compute full bitsets as well as fingerprints.
+	 * @throws IllegalArgumentException If a leaf name is not a taxon.
+	 */
+	public TreeSplits(Tree t, String[] taxa, boolean withBits) {
+		tree = t;
+		if (taxa == null) {
+			taxa = new String[t.getLeafCount()];
+			for (int i = 0; i < taxa.length; i++)
+				taxa[i] = t.getLeaf(i).getName();
+		}
+		this.taxa = taxa;
+		taxonIndex = new HashMap(taxa.length * 4 / 3 + 1);
+		taxonPrints = new long[2 * taxa.length];
+		for (int i = 0; i < taxa.length; i++) {
+			taxonIndex.put(taxa[i], Integer.valueOf(i));
+			taxonPrints[2 * i] = hash(taxa[i], 0x9E3779B97F4A7C15L);
+			taxonPrints[2 * i + 1] = hash(taxa[i], 0xC2B2AE3D27D4EB4FL);
+			allHigh ^= taxonPrints[2 * i];
+			allLow ^= taxonPrints[2 * i + 1];
+		}
+		leafTaxon = new int[t.getLeafCount()];
+		for (int i = 0; i < leafTaxon.length; i++) {
+			Integer taxon = (Integer) taxonIndex.get(t.getLeaf(i).getName());
+			if (taxon == null)
+				throw new IllegalArgumentException("Leaf " + t.getLeaf(i).getName() + " is not in the taxon set");
+			leafTaxon[i] = taxon.intValue();
+		}
+
+		int n = t.getTotalNodeCount();
+		prints = new long[2 * n];
+		if (withBits) {
+			words = (taxa.length + 63) >>> 6;
+			bitsOffset = new int[n];
+			long size = 0;
+			for (int k = 0; k < n; k++) {
+				if (t.getNodeByKey(k).isLeaf())
+					bitsOffset[k] = -1;
+				else {
+					bitsOffset[k] = (int) size;
+					size += words;
+				}
+			}
+			if (size > Integer.MAX_VALUE - 8)
+				throw new IllegalArgumentException("Too many splits for bitsets, use fingerprints only");
+			bits = new long[(int) size];
+		}
+		new ParallelPostorder() {
+			void visit(TreeNode n) {
+				combine(n);
+			}
+		}.run(t.getRoot());
+	}
+
+	/**
+	 * Sets the fingerprint and bitset of a node from those of its children.
+	 * @param n Node whose children are done.
+	 */
+	private void combine(TreeNode n) {
+		int k = 2 * n.key;
+		if (n.isLeaf()) {
+			int taxon = leafTaxon[n.lindex];
+			prints[k] = taxonPrints[2 * taxon];
+			prints[k + 1] = taxonPrints[2 * taxon + 1];
+			return;
+		}
+		long high = 0, low = 0;
+		int offset = (bits == null) ? -1 : bitsOffset[n.key];
+		for (int i = 0; i < n.numberChildren(); i++) {
+			TreeNode child = n.getChild(i);
+			high ^= prints[2 * child.key];
+			low ^= prints[2 * child.key + 1];
+			if (offset < 0)
+				continue;
+			if (child.isLeaf()) {
+				int taxon = leafTaxon[child.lindex];
+				bits[offset + (taxon >>> 6)] |= 1L << taxon;
+			}
+			else {
+				int from = bitsOffset[child.key];
+				for (int w = 0; w < words; w++)
+					bits[offset + w] |= bits[from + w];
+			}
+		}
+		prints[k] = high;
+		prints[k + 1] = low;
+	}
+
+	/**
+	 * 64 bit hash of a string, a seeded FNV-1a over the characters finished with the
+	 * MurmurHash3 mixer.
+	 * @param s String to hash.
+	 * @param seed Seed, different seeds give independent hashes.
+	 * @return Hash value.
+	 */
+	static long hash(String s, long seed) {
+		long h = seed ^ 0xCBF29CE484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Returns the tree these splits were computed for.
+	 * @return The tree.
+	 */
+	public Tree getTree() {
+		return tree;
+	}
+
+	/**
+	 * Number of taxa in the ordering.
+	 * @return Taxon count.
+	 */
+	public int getTaxonCount() {
+		return taxa.length;
+	}
+
+	/**
+	 * Name of a taxon.
+	 * @param i Taxon number.
+	 * @return Taxon name.
+	 */
+	public String getTaxon(int i) {
+		return taxa[i];
+	}
+
+	/**
+	 * Number of a taxon.
+	 * @param name Taxon name.
+	 * @return Taxon number, -1 if the name is not a taxon.
+	 */
+	public int getTaxonIndex(String name) {
+		Integer i = (Integer) taxonIndex.get(name);
+		return (i == null) ? -1 : i.intValue();
+	}
+
+	/**
+	 * Tests if full bitsets were computed.
+	 * @return True if {@link #getBits(TreeNode)} may be used.
+	 */
+	public boolean hasBits() {
+		return bits != null;
+	}
+
+	/**
+	 * Returns the taxa under a node as a bitset.  Taxon i is bit (i % 64) of word i / 64.
+	 * @param n Node of the tree.
+	 * @return New copy of the bitset.
+	 * @throws IllegalStateException If bitsets were not computed.
+	 */
+	public long[] getBits(TreeNode n) {
+		if (bits == null)
+			throw new IllegalStateException("Split bitsets were not computed");
+		long[] result = new long[words];
+		if (n.isLeaf()) {
+			int taxon = leafTaxon[n.lindex];
+			result[taxon >>> 6] = 1L << taxon;
+		}
+		else
+			System.arraycopy(bits, bitsOffset[n.key], result, 0, words);
+		return result;
+	}
+
+	/**
+	 * Tests if a taxon is under a node.
+	 * @param n Node of the tree.
+	 * @param taxon Taxon number.
+	 * @return True if a leaf under n is the taxon.
+	 * @throws IllegalStateException If bitsets were not computed.
+	 */
+	public boolean contains(TreeNode n, int taxon) {
+		if (bits == null)
+			throw new IllegalStateException("Split bitsets were not computed");
+		if (n.isLeaf())
+			return leafTaxon[n.lindex] == taxon;
+		return (bits[bitsOffset[n.key] + (taxon >>> 6)] & (1L << taxon)) != 0;
+	}
+
+	/**
+	 * High word of the fingerprint of the taxa under a node.
+	 * @param n Node of the tree.
+	 * @param unrooted True to give a split and its complement the same fingerprint.
+	 * @return Fingerprint high word.
+	 */
+	public long getFingerprintHigh(TreeNode n, boolean unrooted) {
+		long high = prints[2 * n.key];
+		return (unrooted && useComplement(n.key)) ? high ^ allHigh : high;
+	}
+
+	/**
+	 * Low word of the fingerprint of the taxa under a node.
+	 * @param n Node of the tree.
+	 * @param unrooted True to give a split and its complement the same fingerprint.
+	 * @return Fingerprint low word.
+	 */
+	public long getFingerprintLow(TreeNode n, boolean unrooted) {
+		long low = prints[2 * n.key + 1];
+		return (unrooted && useComplement(n.key)) ? low ^ allLow : low;
+	}
+
+	/**
+	 * Fingerprints of all nodes.
+	 * @param unrooted True to give a split and its complement the same fingerprint.
+	 * @return High and low fingerprint words interleaved by key, a new array.
+	 */
+	public long[] getFingerprints(boolean unrooted) {
+		long[] result = prints.clone();
+		if (unrooted)
+			for (int k = 0; k < result.length / 2; k++)
+				if (useComplement(k)) {
+					result[2 * k] ^= allHigh;
+					result[2 * k + 1] ^= allLow;
+				}
+		return result;
+	}
+
+	/**
+	 * Unrooted fingerprints use the smaller, as unsigned 128 bit numbers, of the
+	 * fingerprints of a split and its complement, so they don't depend on where the
+	 * tree is rooted or on the taxon ordering.
+	 * @param key Node key.
+	 * @return True if the complement gives the smaller fingerprint.
+	 */
+	private boolean useComplement(int key) {
+		long high = prints[2 * key], low = prints[2 * key + 1];
+		long complementHigh = high ^ allHigh, complementLow = low ^ allLow;
+		if (complementHigh != high)
+			return Long.compareUnsigned(complementHigh, high) < 0;
+		return Long.compareUnsigned(complementLow, low) < 0;
+	}
+}
@@ -0,0 +1,176 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+import java.util.Arrays;
+
+/**
+ * Iterative walks over a tree of {@link TreeNode}s, reported to a {@link TreeVisitor}.
+ *
+ * Nothing here recurses, so trees of any depth can be walked.  Preorder and postorder
+ * walks follow the {@link TreeNode#preorderNext} and {@link TreeNode#posorderNext} links
+ * set up by the parser and need no extra memory.  The other walks keep their stack or
+ * queue in arrays owned by the traversal, which only grow and are reused by later walks,
+ * so a traversal object doesn't allocate per node.  A traversal object may not be used
+ * by two threads, or from inside one of its own callbacks, at the same time.
+ *
+ * @see TreeVisitor
+ */
+public class TreeTraversal {
+
+	/** Nodes on the current path from the subtree root, or the level order queue. */
+	private TreeNode[] nodes = new TreeNode[64];
+	/** Index of the next child to visit, for each node on the path. */
+	private int[] childIndex = new int[64];
+
+	/**
+	 * Visits a subtree in preorder, calling {@link TreeVisitor#enter(TreeNode)} for each node.
+	 * Uses the preorder links when the subtree has been linked, otherwise walks the children.
+	 * @param root Root of the subtree.
+	 * @param v Visitor.
+	 */
+	public void preorder(TreeNode root, TreeVisitor v) {
+		if (!isLinked(root)) {
+			depthFirst(root, v, true, false, false);
+			return;
+		}
+		TreeNode last = root.rightmostLeaf;
+		for (TreeNode n = root; ; n = n.preorderNext) {
+			v.enter(n);
+			if (n == last)
+				break;
+		}
+	}
+
+	/**
+	 * Visits a subtree in postorder, calling {@link TreeVisitor#exit(TreeNode)} for each node.
+	 * Uses the postorder links when the subtree has been linked, otherwise walks the children.
+	 * @param root Root of the subtree.
+	 * @param v Visitor.
+	 */
+	public void postorder(TreeNode root, TreeVisitor v) {
+		if (!isLinked(root)) {
+			depthFirst(root, v, false, true, false);
+			return;
+		}
+		for (TreeNode n = root.leftmostLeaf; ; n = n.posorderNext) {
+			v.exit(n);
+			if (n == root)
+				break;
+		}
+	}
+
+	/**
+	 * Depth first walk of a subtree, calling {@link TreeVisitor#enter(TreeNode)} on the way down
+	 * and {@link TreeVisitor#exit(TreeNode)} on the way up.  Goes through the child lists only,
+	 * so it also works on trees that haven't been linked yet.
+	 * @param root Root of the subtree.
+	 * @param v Visitor.
+	 */
+	public void depthFirst(TreeNode root, TreeVisitor v) {
+		depthFirst(root, v, true, true, false);
+	}
+
+	/**
+	 * Euler tour of a subtree: {@link TreeVisitor#enter(TreeNode)} on the way down,
+	 * {@link TreeVisitor#revisit(TreeNode, int)} each time a child is finished and
+	 * {@link TreeVisitor#exit(TreeNode)} on the way up.  Entries and revisits together
+	 * list the 2n - 1 nodes of the tour.
+	 * @param root Root of the subtree.
+	 * @param v Visitor.
+	 */
+	public void eulerTour(TreeNode root, TreeVisitor v) {
+		depthFirst(root, v, true, true, true);
+	}
+
+	/**
+	 * Visits a subtree level by level, left to right within a level, calling
+	 * {@link TreeVisitor#enter(TreeNode)} for each node.
+	 * @param root Root of the subtree.
+	 * @param v Visitor.
+	 */
+	public void levelOrder(TreeNode root, TreeVisitor v) {
+		// every node is enqueued once, so the queue never wraps
+		int head = 0, tail = 0;
+		nodes[tail++] = root;
+		while (head < tail) {
+			TreeNode n = nodes[head++];
+			v.enter(n);
+			int children = n.numberChildren();
+			if (tail + children > nodes.length)
+				grow(tail + children);
+			for (int i = 0; i < children; i++)
+				nodes[tail++] = n.getChild(i);
+		}
+		clear(tail);
+	}
+
+	/**
+	 * Stack based walk over the child lists.
+	 * @param root Root of the subtree.
+	 * @param v Visitor.
+	 * @param enter True to call enter.
+	 * @param exit True to call exit.
+	 * @param revisit True to call revisit.
+	 */
+	private void depthFirst(TreeNode root, TreeVisitor v, boolean enter, boolean exit, boolean revisit) {
+		int top = 0;
+		int deepest = 1;
+		nodes[0] = root;
+		childIndex[0] = 0;
+		if (enter)
+			v.enter(root);
+		while (top >= 0) {
+			TreeNode n = nodes[top];
+			int i = childIndex[top];
+			if (i < n.numberChildren()) {
+				childIndex[top] = i + 1;
+				TreeNode child = n.getChild(i);
+				if (++top == nodes.length)
+					grow(top + 1);
+				deepest = Math.max(deepest, top + 1);
+				nodes[top] = child;
+				childIndex[top] = 0;
+				if (enter)
+					v.enter(child);
+			}
+			else {
+				if (exit)
+					v.exit(n);
+				top--;
+				if (revisit && top >= 0)
+					v.revisit(nodes[top], childIndex[top] - 1);
+			}
+		}
+		clear(deepest);
+	}
+
+	/**
+	 * Tests if the preorder and postorder links of a subtree have been set.
+	 * @param root Root of the subtree.
+	 * @return True if the extreme leaves, and so the links, have been set up.
+	 */
+	private static boolean isLinked(TreeNode root) {
+		return root.leftmostLeaf != null && root.rightmostLeaf != null;
+	}
+
+	/**
+	 * Grows the work arrays.
+	 * @param size Minimum size needed.
+	 */
+	private void grow(int size) {
+		int length = Math.max(size, nodes.length * 2);
+		TreeNode[] biggerNodes = new TreeNode[length];
+		System.arraycopy(nodes, 0, biggerNodes, 0, nodes.length);
+		nodes = biggerNodes;
+		int[] biggerIndex = new int[length];
+		System.arraycopy(childIndex, 0, biggerIndex, 0, childIndex.length);
+		childIndex = biggerIndex;
+	}
+
+	/**
+	 * Drops the node references left in the work array, so walked trees can be collected.
+	 * @param used Number of entries used by the last walk.
+	 */
+	private void clear(int used) {
+		Arrays.fill(nodes, 0, Math.min(used, nodes.length), null);
+	}
+}
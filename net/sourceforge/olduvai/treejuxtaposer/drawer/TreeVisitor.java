@@ -0,0 +1,32 @@
+package net.sourceforge.olduvai.treejuxtaposer.drawer;
+
+/**
+ * Callbacks for the walks of {@link TreeTraversal}.  All methods do nothing by default,
+ * subclasses override the ones they need.
+ *
+ * @see TreeTraversal
+ */
+public abstract class TreeVisitor {
+
+	/**
+	 * Called when a walk first reaches a node, before any of its children.
+	 * @param n Node reached.
+	 */
+	public void enter(TreeNode n) {
+	}
+
+	/**
+	 * Called when a walk leaves a node, after all of its children.
+	 * @param n Node left.
+	 */
+	public void exit(TreeNode n) {
+	}
+
+	/**
+	 * Called by an Euler tour each time it comes back to a node from one of its children.
+	 * @param n Node returned to.
+	 * @param child Index of the child just finished.
+	 */
+	public void revisit(TreeNode n, int child) {
+	}
+}
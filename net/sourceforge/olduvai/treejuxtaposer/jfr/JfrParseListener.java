@@ -0,0 +1,62 @@
+package net.sourceforge.olduvai.treejuxtaposer.jfr;
+
+import net.sourceforge.olduvai.treejuxtaposer.ParseListener;
+import net.sourceforge.olduvai.treejuxtaposer.ParseStats;
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+
+/**
+ * Records every parsed tree as a {@code net.sourceforge.olduvai.treejuxtaposer.Parse}
+ * flight recorder event, so parse costs show up in a JFR recording next to GC and
+ * allocation events.  This package is the only one that needs the {@code jdk.jfr}
+ * module; the parser itself runs on {@code java.base}.  To instrument all parsers:
+ * <pre>
+ * TreeParser.setDefaultParseListener(new JfrParseListener());
+ * </pre>
+ * and run with {@code -XX:StartFlightRecording}.  When the event is disabled, each tree
+ * costs one event allocation and an enabled check.
+ *
+ * @see TreeParser#setParseListener(ParseListener)
+ */
+public class JfrParseListener implements ParseListener
+{
+    /** Event of the tree being parsed on each thread, begun in {@link #parseStarted(String)}. */
+    private final ThreadLocal current = new ThreadLocal();
+
+    /**
+     * Begins the event of a tree.
+     * @param streamName Name of the tree or file being loaded.
+     */
+    public void parseStarted(String streamName)
+    {
+        ParseEvent event = new ParseEvent();
+        if (!event.isEnabled())
+            return;
+        event.begin();
+        current.set(event);
+    }
+
+    /**
+     * Ends the event of a tree and commits it if it passes the recording's threshold.
+     * @param stats Measurements of the tree.
+     */
+    public void treeParsed(ParseStats stats)
+    {
+        ParseEvent event = (ParseEvent) current.get();
+        if (event == null)
+            return;
+        current.set(null);
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.streamName = stats.getStreamName();
+        event.characters = stats.getCharacters();
+        event.readTime = stats.getReadNanos();
+        event.tokenizeTime = stats.getTokenizeNanos();
+        event.postProcessTime = stats.getPostProcessNanos();
+        event.nodes = stats.getNodes();
+        event.leaves = stats.getLeaves();
+        event.depth = stats.getDepth();
+        event.duplicates = stats.getDuplicates();
+        event.commit();
+    }
+}
@@ -0,0 +1,63 @@
+package net.sourceforge.olduvai.treejuxtaposer.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for one parsed tree, committed by {@link JfrParseListener}.
+ * The event's own duration spans the whole parse; the fields split it into reading,
+ * tokenizing and post processing.  Like other application events it is enabled
+ * by default; a settings file can disable it or give it a threshold under its name,
+ * {@code net.sourceforge.olduvai.treejuxtaposer.Parse}.
+ */
+@Name("net.sourceforge.olduvai.treejuxtaposer.Parse")
+@Label("Tree Parse")
+@Category({"TreeJuxtaposer", "Parsing"})
+@Description("One tree parsed and post processed by TreeParser")
+@StackTrace(false)
+class ParseEvent extends Event
+{
+    /** Name of the tree or file. */
+    @Label("Stream Name")
+    String streamName;
+
+    /** Characters scanned. */
+    @Label("Characters")
+    long characters;
+
+    /** Time spent reading from the reader. */
+    @Label("Read Time")
+    @Timespan
+    long readTime;
+
+    /** Time spent tokenizing, reads excluded. */
+    @Label("Tokenize Time")
+    @Timespan
+    long tokenizeTime;
+
+    /** Time spent post processing. */
+    @Label("Post Process Time")
+    @Timespan
+    long postProcessTime;
+
+    /** Number of nodes. */
+    @Label("Nodes")
+    int nodes;
+
+    /** Number of leaves. */
+    @Label("Leaves")
+    int leaves;
+
+    /** Deepest nesting. */
+    @Label("Depth")
+    int depth;
+
+    /** Renamed duplicate leaves, -1 if not numbered. */
+    @Label("Duplicate Leaves")
+    int duplicates;
+}
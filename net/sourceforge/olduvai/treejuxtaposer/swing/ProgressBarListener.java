@@ -0,0 +1,57 @@
+package net.sourceforge.olduvai.treejuxtaposer.swing;
+
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+
+import net.sourceforge.olduvai.treejuxtaposer.ProgressListener;
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+
+/**
+ * Shows {@link TreeParser} progress in a progress bar.  The bar runs from 0 to 100
+ * and is only updated, on the event dispatch thread, when the percentage changes;
+ * progress without a known total makes it indeterminate.
+ */
+public class ProgressBarListener implements ProgressListener
+{
+    /** Bar to update. */
+    private final JProgressBar progressBar;
+    /** Percentage shown last, -1 for indeterminate, MIN_VALUE before the first update. */
+    private int shown = Integer.MIN_VALUE;
+
+    /**
+     * Listener updating a progress bar.
+     * @param progressBar Bar to update.
+     */
+    public ProgressBarListener(JProgressBar progressBar)
+    {
+        this.progressBar = progressBar;
+    }
+
+    /**
+     * Posts the new percentage to the progress bar if it changed.
+     * @param done Characters or trees read so far.
+     * @param total Characters or trees expected in all, or -1 if that isn't known.
+     */
+    public void progress(long done, long total)
+    {
+        final int percent = (total <= 0) ? -1 : (int) Math.min(100, done * 100 / total);
+        if (percent == shown)
+            return;
+        shown = percent;
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                if (percent < 0)
+                    progressBar.setIndeterminate(true);
+                else
+                {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setMinimum(0);
+                    progressBar.setMaximum(100);
+                    progressBar.setValue(percent);
+                }
+            }
+        });
+    }
+}
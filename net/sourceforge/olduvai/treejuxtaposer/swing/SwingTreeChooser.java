@@ -0,0 +1,134 @@
+package net.sourceforge.olduvai.treejuxtaposer.swing;
+
+import java.awt.Frame;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Vector;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+
+import net.sourceforge.olduvai.treejuxtaposer.TreeParser;
+import net.sourceforge.olduvai.treejuxtaposer.TreeSelectionStrategy;
+
+/**
+ * Dialog for selecting the trees to load from a nexus file, the interactive
+ * {@link TreeSelectionStrategy}.  The dialog is modal, so the calling thread waits
+ * for the user without polling; it is built and shown on the event dispatch thread.
+ *
+ * @see TreeParser#setTreeSelectionStrategy(TreeSelectionStrategy)
+ */
+public class SwingTreeChooser implements TreeSelectionStrategy
+{
+    /** Owner of the dialog, may be null. */
+    private Frame owner;
+
+    /**
+     * Chooser with a dialog that has no owner window.
+     */
+    public SwingTreeChooser()
+    {
+        this(null);
+    }
+
+    /**
+     * Chooser with a dialog centred on a window.
+     * @param owner Owner of the dialog, or null.
+     */
+    public SwingTreeChooser(Frame owner)
+    {
+        this.owner = owner;
+    }
+
+    /**
+     * Shows the selection dialog and waits until it is closed.  Closing the dialog
+     * without pressing "Select" cancels, as the "Cancel" button does.
+     * @param treeNames Names of the trees, in file order.
+     * @return Integer indices of the selected trees in ascending order, empty if cancelled.
+     */
+    public Vector chooseTrees(final ArrayList treeNames)
+    {
+        if (SwingUtilities.isEventDispatchThread())
+            return showDialog(treeNames);
+        final Vector[] result = new Vector[1];
+        try
+        {
+            SwingUtilities.invokeAndWait(new Runnable()
+            {
+                public void run()
+                {
+                    result[0] = showDialog(treeNames);
+                }
+            });
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return new Vector();
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        return result[0];
+    }
+
+    /**
+     * Builds the dialog and shows it, on the event dispatch thread.
+     * @param treeNames Names of the trees.
+     * @return Selected indices, empty if cancelled.
+     */
+    private Vector showDialog(ArrayList treeNames)
+    {
+        final JDialog dialog = new JDialog(owner, "Nexus tree selection", true);
+        final JList selection = new JList(treeNames.toArray());
+        final Vector returnVector = new Vector();
+        selection.setDragEnabled(true);
+        dialog.setLayout(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.fill = GridBagConstraints.BOTH;
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        gbc.gridwidth = 2;
+        gbc.weightx = 1;
+        gbc.weighty = 1;
+        dialog.add(new JScrollPane(selection), gbc);
+        gbc.fill = GridBagConstraints.NONE;
+        gbc.gridy++;
+        gbc.gridwidth = 1;
+        gbc.weighty = 0;
+        JButton ok = new JButton("Select");
+        JButton cancel = new JButton("Cancel");
+        ok.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                int[] selectedList = selection.getSelectedIndices();
+                for (int i = 0; i < selectedList.length; i++)
+                    returnVector.add(Integer.valueOf(selectedList[i]));
+                dialog.dispose();
+            }
+        });
+        cancel.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                dialog.dispose(); // empty vector, should load no trees
+            }
+        });
+        dialog.add(ok, gbc);
+        gbc.gridx++;
+        dialog.add(cancel, gbc);
+        dialog.setSize(250, 300);
+        dialog.setLocationRelativeTo(owner);
+        dialog.setVisible(true); // modal, returns when the dialog is disposed
+        return returnVector;
+    }
+}
@@ -0,0 +1,17 @@
+#!/bin/bash
+# Runs the JMH benchmarks in bench/ with the gc profiler for allocation rates.
+# JMH_LIB is a directory holding jmh-core, jmh-generator-annprocess, jopt-simple
+# and commons-math3 jars.  Extra arguments go to JMH, for example
+#   ./runBench.sh ParseBenchmark -p shape=realistic -p leaves=100000
+
+longP="net/sourceforge/olduvai"
+benchP="build/bench"
+JMH_LIB=${JMH_LIB:-lib/jmh}
+
+#compile, the annotation processor generates the benchmark harness
+mkdir -p $benchP
+javac -cp "$JMH_LIB/*" -d $benchP $longP/treejuxtaposer/drawer/*java $longP/treejuxtaposer/*java \
+	bench/$longP/treejuxtaposer/bench/*java || exit 1
+
+#run
+java -cp "$benchP:$JMH_LIB/*" org.openjdk.jmh.Main -prof gc "$@"